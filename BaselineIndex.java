@@ -0,0 +1,112 @@
+/*
+ * =============================================================================================
+ * Name: BaselineIndex.java
+ * Desc: Keeps the RowStore that loadData builds from File 1 in a sidecar file, so that the
+ *       next comparison of the same File 1 (typically a baseline that is compared with a new
+ *       file again and again) can skip loadData and go straight to comparing.
+ *       The sidecar starts with a signature of what the store was built from: the path, size
+ *       and modification time of File 1, its charset, the key columns, the compared columns and whether
+ *       the values are kept (hash) or not (index). A sidecar whose signature is not that of
+ *       the current comparison is ignored and written again. The store itself is read back
+ *       through memory-mapped sections of the sidecar (see RowStore.read).
+ *       A new sidecar is written to a temporary file first and then moved over the old one,
+ *       so that a comparison that is interrupted never leaves half a sidecar behind.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+class BaselineIndex {
+    static final long MAGIC = 0x4353564449445831L;     // "CSVDIDX1"
+    static final int VERSION = 4;
+
+    private BaselineIndex() {
+    }
+
+    // What a store of File 1 is built from; a sidecar is only used if its signature is this
+    static String signature(DiffEngine engine) throws IOException {
+        File f = new File(engine.file1);
+        StringBuilder sb = new StringBuilder();
+        sb.append(f.getCanonicalPath()).append('\n');
+        sb.append(f.length()).append('\n');
+        sb.append(f.lastModified()).append('\n');
+        sb.append(engine.algorithm.equals("index") ? "index" : "hash").append('\n');
+        sb.append("charset:").append(engine.charset.name()).append('\n');
+        for (int c : engine.keyCols) {
+            sb.append("key:").append(engine.header.get(c).getName()).append('\n');
+        }
+        for (int c : engine.cmpCols) {
+            sb.append("value:").append(engine.header.get(c).getName()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // The store in sidecar, or null if there is no sidecar or it was made for something else
+    static RowStore load(File sidecar, String signature) throws IOException {
+        if (! sidecar.isFile()) {
+            return null;
+        }
+        byte[] expected = signature.getBytes(StandardCharsets.UTF_8);
+        FileInputStream fis = new FileInputStream(sidecar);
+        try {
+            FileChannel channel = fis.getChannel();
+            int headSize = 16 + expected.length;
+            if (channel.size() < headSize) {
+                return null;
+            }
+            ByteBuffer head = ByteBuffer.allocate(headSize);
+            while (head.hasRemaining()) {
+                if (channel.read(head) < 0) {
+                    return null;
+                }
+            }
+            head.flip();
+            if (head.getLong() != MAGIC || head.getInt() != VERSION || head.getInt() != expected.length) {
+                return null;
+            }
+            byte[] actual = new byte[expected.length];
+            head.get(actual);
+            if (! Arrays.equals(actual, expected)) {
+                return null;
+            }
+            return RowStore.read(channel, headSize);
+        } finally {
+            fis.close();
+        }
+    }
+
+    // Write store to sidecar, replacing whatever sidecar was there
+    static void save(File sidecar, String signature, RowStore store) throws IOException {
+        File dir = sidecar.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile("csvdiff", ".idx", dir);
+        try {
+            byte[] sig = signature.getBytes(StandardCharsets.UTF_8);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sig.length);
+                out.write(sig);
+                store.write(out);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * =============================================================================================
+ * Name: ColumnType.java
+ * Desc: The type of a compared column, inferred from a sample of File 1 by DiffEngine, and the
+ *       cell comparator that goes with it. Each comparator gives exactly the same answer as
+ *       DiffEngine.areUnequal: it only takes a shortcut when the values fit the type, and hands
+ *       anything else to areUnequal.
+ *       The types are ordered so that the type of a column is the highest type of its values
+ *       (an empty value does not make an INTEGER or DECIMAL column TEXT).
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+enum ColumnType {
+    // Every sampled value is empty
+    EMPTY {
+        boolean areUnequal(DiffEngine engine, String value1, String value2) {
+            if (value1.length() == 0 && value2.length() == 0) {
+                return false;
+            }
+            return engine.areUnequal(value1, value2);
+        }
+    },
+
+    // Every sampled value is an integer of at most 18 digits, or empty
+    INTEGER {
+        boolean areUnequal(DiffEngine engine, String value1, String value2) {
+            long l1 = parseInteger(value1);
+            long l2 = parseInteger(value2);
+            if (l1 != NOT_AN_INTEGER && l2 != NOT_AN_INTEGER) {
+                return Math.abs(Math.abs((double) l1) - Math.abs((double) l2)) >= engine.tolerance;
+            }
+            return engine.areUnequal(value1, value2);
+        }
+    },
+
+    // Every sampled value is a number, or empty
+    DECIMAL {
+        boolean areUnequal(DiffEngine engine, String value1, String value2) {
+            double d1 = NumberScanner.parse(value1);
+            double d2 = NumberScanner.parse(value2);
+            if (! Double.isNaN(d1) && ! Double.isNaN(d2)) {
+                return Math.abs(Math.abs(d1) - Math.abs(d2)) >= engine.tolerance;
+            }
+            return engine.areUnequal(value1, value2);
+        }
+    },
+
+    // Anything else
+    TEXT {
+        boolean areUnequal(DiffEngine engine, String value1, String value2) {
+            if (engine.tolerance > 0 && value1.equals(value2)) {
+                return false;
+            }
+            // A value that cannot start a number is compared as a string
+            if (! canStartNumber(value1) || ! canStartNumber(value2)) {
+                return ! value1.equals(value2);
+            }
+            return engine.areUnequal(value1, value2);
+        }
+    };
+
+    static final long NOT_AN_INTEGER = Long.MIN_VALUE;
+
+    abstract boolean areUnequal(DiffEngine engine, String value1, String value2);
+
+    // TEXT.areUnequal for two values whose dictionary codes (see ValueDictionary) have told
+    // whether they are the same string: the Strings are only compared as numbers
+    static boolean areTextUnequal(DiffEngine engine, String value1, String value2, boolean same) {
+        if (same) {
+            if (engine.tolerance > 0 || ! canStartNumber(value1)) {
+                return false;
+            }
+        } else if (! canStartNumber(value1) || ! canStartNumber(value2)) {
+            return true;
+        }
+        return engine.areUnequal(value1, value2);
+    }
+
+    // The type of a single value
+    static ColumnType classify(String value) {
+        if (value.length() == 0) {
+            return EMPTY;
+        } else if (parseInteger(value) != NOT_AN_INTEGER) {
+            return INTEGER;
+        } else if (NumberScanner.isNumber(value)) {
+            return DECIMAL;
+        }
+        return TEXT;
+    }
+
+    // The type of a column holding values of types a and b
+    static ColumnType merge(ColumnType a, ColumnType b) {
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    // [+-]digits with at most 18 digits, or NOT_AN_INTEGER
+    static long parseInteger(String s) {
+        int n = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == n || n - i > 18) {
+            return NOT_AN_INTEGER;
+        }
+        long value = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INTEGER;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Whether a value that starts like this could be a number to Double.valueOf
+    static boolean canStartNumber(String s) {
+        if (s.length() == 0) {
+            return false;
+        }
+        char c = s.charAt(0);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c <= ' ' || c == 'N' || c == 'I';
+    }
+}
@@ -21,26 +21,29 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
 import javax.swing.table.TableCellRenderer;
 
 public class CompareFiles implements ActionListener {
+    static final int PROGRESS_INTERVAL = 200;   // ms between updates of the progress and the result list
+
     JPanel textPanel, panelForTextFields, completionPanel;
     JLabel titleLabel, file1Label, file2Label, keysLabel, toleranceLabel, excludeLabel;
     JTextField file1Field, file2Field, keysField, toleranceField, excludeField;
-    JButton diffButton, closeButton;
-    DefaultListModel sampleModel;
+    JButton diffButton, cancelButton, closeButton;
+    JProgressBar progressBar;
+    ResultListModel sampleModel;
+    DiffTask diffTask;                        // the comparison that is running, or null
 
-    JList resultList;
+    JList<String> resultList;
     JScrollPane scrollPanel;
-    Hashtable<String, Boolean> keyHash, excludeHash;
-    Hashtable<String, String[]> dataHash;
     String file1, file2;
-    double tolerance;
     ArrayList<HeaderCol> header;
-    ArrayList<ComparisonMetaData> cmpMetaData;
+    ResultStore results;
+    DiffEngine diffEngine;                    // the last comparison, for DiffEngine.keyLines
     JButton browseButton1, browseButton2, previewButton1, previewButton2, selectKeysButton, selectExcludeButton;
     JFileChooser jfc1, jfc2;
 
@@ -191,7 +194,23 @@ public class CompareFiles implements ActionListener {
         diffButton.addActionListener(this);
         totalGUI.add(diffButton);
 
-        resultList = new JList();
+        // Button for stopping a diff, and its progress
+        cancelButton = new JButton("Cancel");
+        cancelButton.setLocation(190, 250);
+        cancelButton.setSize(80, 30);
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(this);
+        totalGUI.add(cancelButton);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setLocation(280, 255);
+        progressBar.setSize(200, 20);
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        totalGUI.add(progressBar);
+
+        resultList = new JList<String>();
+        resultList.setPrototypeCellValue(ResultListModel.PROTOTYPE);   // rows are formatted only when painted
         scrollPanel = new JScrollPane(resultList);
         scrollPanel.setLocation(0, 300);
         scrollPanel.setSize(490, 100);
@@ -199,7 +218,8 @@ public class CompareFiles implements ActionListener {
 
         MouseListener mouseListener = new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() == 2) {
+                // Not while a comparison is running: its results are not all there yet
+                if (e.getClickCount() == 2 && results != null) {
                     int index = resultList.locationToIndex(e.getPoint());
                     try {
                         //displayDataTable (index);
@@ -242,37 +262,31 @@ public class CompareFiles implements ActionListener {
     }
 
     class DataTable {
-        private Hashtable<String, Boolean> diffIndexes = new Hashtable<String, Boolean>();
+        private BitSet diffIndexes = new BitSet();
         private Object[] columnNames;
         private Object[][] rowData;
         private int leftLineNumber;
         private int rightLineNumber;
 
         DataTable (int index, String[] keys) throws Exception {
-            if (index >= 0) {
-                ComparisonMetaData cmd = cmpMetaData.get(index);
-                leftLineNumber = cmd.getLeftLineNumber();
-                rightLineNumber = cmd.getRightLineNumber();
-
-                // populate diffIndexes with the positions of columns that have differences
-                if (leftLineNumber != -1 && rightLineNumber != -1) {
-                    String message = sampleModel.get(index).toString();
-                    message = message.substring(0, message.length() - 1);  // discard the newline at the end of the string
-                    int fromIndex, toIndex, messageLength;
-                    fromIndex = message.indexOf(":", message.indexOf("Mismatched columns", 0));
-                    messageLength = message.length();
-                    while (fromIndex <= messageLength) {
-                        toIndex = message.indexOf(",", fromIndex);
-                        if (toIndex == -1) {
-                            int i = Integer.parseInt(message.substring(fromIndex + 1)) - 1;
-                            diffIndexes.put(String.valueOf(i), true);
-                            fromIndex = messageLength + 1;
-                        } else {
-                            int i = Integer.parseInt(message.substring(fromIndex + 1, toIndex)) - 1;
-                            diffIndexes.put(String.valueOf(i), true);
-                            fromIndex = message.indexOf(":", toIndex + 1);
-                        }
+            if (index < 0 && diffEngine != null) {
+                // Not among the results: the key index of the comparison knows where the key is
+                int[] lines = diffEngine.keyLines(keys);
+                if (lines != null) {
+                    if (lines[0] == 0 && lines[1] == 0) {
+                        throw new Exception("The key was not found in either file.");
                     }
+                    leftLineNumber = lines[0] == 0 ? -1 : lines[0];
+                    rightLineNumber = lines[1] == 0 ? -1 : lines[1];
+                }
+            }
+            if (index >= 0) {
+                leftLineNumber = results.leftLine(index);
+                rightLineNumber = results.rightLine(index);
+
+                // the positions of columns that have differences
+                if (results.mismatchedColumns(index) != null) {
+                    diffIndexes = results.mismatchedColumns(index);
                 }
             }
 
@@ -295,62 +309,70 @@ public class CompareFiles implements ActionListener {
         }
 
         void populateRowData(String file, int lineNo, int column, String[] keys) throws Exception {
+            if (lineNo == -1) {
+                // Not in this file
+                return;
+            } else if (lineNo > 0) {
+                // Go straight to the line through the line index of the file
+                try {
+                    String line = CsvFileSession.get(file).lineIndex().readLine(lineNo);
+                    if (line != null) {
+                        loadRowData(line, column);
+                    }
+                } catch (Exception e) {
+                    throw new Exception("Unable to process file : " + file);
+                }
+                return;
+            }
             try {
                 Boolean keysFound = false;
                 String line;
                 int lineNumber = 0;
-                FileInputStream fis = new FileInputStream(file);
-                Scanner scanner = new Scanner(fis);
-                while (scanner.hasNextLine()) {
-                    line = scanner.nextLine();
-                    lineNumber++;
-
-                    if (lineNo == 0 && matchSuccess(line, keys)) {
-                        keysFound = true;
-                        if (column == 2) {
-                            leftLineNumber = lineNumber;
-                        } else if (column == 3) {
-                            rightLineNumber = lineNumber;
+                LineReader reader = new LineReader(file);
+                try {
+                    while ((line = reader.readLine()) != null) {
+                        lineNumber++;
+
+                        if (lineNo == 0 && matchSuccess(line, keys)) {
+                            keysFound = true;
+                            if (column == 2) {
+                                leftLineNumber = lineNumber;
+                            } else if (column == 3) {
+                                rightLineNumber = lineNumber;
+                            }
                         }
-                    }
 
-                    if (lineNumber == lineNo || keysFound) {
-                        // Parse this line, load rowData array and break
-                        int fromInd, toInd, len, iter;
-                        fromInd = 0;
-                        len = line.length();
-                        iter = 0;
-                        while (fromInd <= len) {
-                            if (iter >= header.size()) {  // data lines may have more tokens than header line, hence ignore
-                                break;
-                            }
-                            toInd = line.indexOf(",", fromInd);
-                            if (toInd == -1) {
-                                rowData[iter][column] = line.substring(fromInd);
-                                break;                                            // forceful termination
-                            } else {
-                                rowData[iter][column] = line.substring(fromInd, toInd);
-                                fromInd = toInd + 1;
-                            }
-                            iter++;
+                        if (lineNumber == lineNo || keysFound) {
+                            loadRowData(line, column);
+                            break;
                         }
-                        break;
                     }
+                } finally {
+                    reader.close();
                 }
             } catch (Exception e) {
                 throw new Exception("Unable to process file : " + file);
             }
         }
 
+        // Parse a line into the rowData column
+        void loadRowData(String line, int column) {
+            String[] fields = CsvTokenizer.split(line);
+            // data lines may have more fields than the header line, hence ignore them
+            for (int i = 0; i < fields.length && i < header.size(); i++) {
+                rowData[i][column] = fields[i];
+            }
+        }
+
         Boolean matchSuccess (String line, String[] keys) {
-            String[] arr = delimitedStringToArray(line, ",");
+            String[] arr = CsvTokenizer.split(line);
             int matches = 0;
             int keyCount = 0;
             int iter = 0;
             for (int i = 0; i < header.size(); i++) {
                 if (header.get(i).getIsKey()) {
                     keyCount++;
-                    if (iter <= keys.length - 1 && keys[iter].equals(arr[i])) {
+                    if (iter <= keys.length - 1 && i < arr.length && keys[iter].equals(arr[i])) {
                         matches++;
                     }
                     iter++;
@@ -385,7 +407,7 @@ public class CompareFiles implements ActionListener {
                             c.setBackground(new Color(177,177,255)); // A shade of blue
                         else if (header.get(row).getIsExclude())
                             c.setBackground(Color.LIGHT_GRAY);
-                        else if (diffIndexes.containsKey(String.valueOf(row)))
+                        else if (diffIndexes.get(row))
                             c.setBackground(new Color(255,145,71));  // Light orange-red
                         else
                             c.setBackground(getBackground());
@@ -404,67 +426,28 @@ public class CompareFiles implements ActionListener {
     public void actionPerformed(ActionEvent e) {
         if(e.getSource() == diffButton) {
             try {
-                if (file1Field.getText().trim().compareTo("") == 0) {
-                    throw new Exception("File1 field is either blank or invalid.");
-                } else if (file2Field.getText().trim().compareTo("") == 0) {
-                    throw new Exception("File2 field is either blank or invalid.");
-                } else if (file1Field.getText().trim().equalsIgnoreCase(file2Field.getText().trim())) {
-                    throw new Exception("File1 and File2 must be different.");
-                } else if (keysField.getText().trim().compareTo("") == 0) {
-                    throw new Exception("Keys field is either blank or invalid.");
-                }
-
-                if (toleranceField.getText().trim().compareTo("") == 0) {
-                    tolerance = 0.01;             // default value
-                } else if (! isNumber(toleranceField.getText().trim())) {
-                    throw new Exception("Tolerance field is not numeric.");
-                } else {
-                    tolerance = Double.parseDouble (toleranceField.getText().trim());
-                }
-
-                keyHash = new Hashtable<String, Boolean>();
-                populateHash (keysField.getText(), keyHash, "key");
-
-                excludeHash = new Hashtable<String, Boolean>();
-                if (excludeField.getText().trim().compareTo("") != 0) {
-                    populateHash (excludeField.getText(), excludeHash, "exclude column");
-
-                    // Balk if key and exclude columns overlap
-                    Enumeration excludeCols = excludeHash.keys();
-                    String excludeKey;
-                    while (excludeCols.hasMoreElements()) {
-                        excludeKey = (String) excludeCols.nextElement();
-                        if (keyHash.containsKey(excludeKey)) {
-                            throw new Exception("Key and exclude columns overlap.");
-                        }
-                    }
-                }
-
-                file1 = file1Field.getText().trim();
-                File f1 = new File(file1);
-                if (! f1.isFile() || ! f1.canRead()) {
-                    throw new Exception("Either File1 does not exist or it cannot be read.");
-                }
-
-                file2 = file2Field.getText().trim();
-                File f2 = new File(file2);
-                if (! f2.isFile() || ! f2.canRead()) {
-                    throw new Exception("Either File2 does not exist or it cannot be read.");
-                }
-
-                readHeader(file1);
-
-                compareHeaders(file2);
-                loadData(file1);
-
-                sampleModel = new DefaultListModel();
-                compareData(file2);
-
-                resultList.setModel(sampleModel);
+                DiffEngine engine = new DiffEngine(file1Field.getText(),
+                                                   file2Field.getText(),
+                                                   keysField.getText(),
+                                                   toleranceField.getText(),
+                                                   excludeField.getText());
+
+                // The cores parse and compare in the pipelined stages rather than in parallel
+                // ranges (setParallelism), whose results only come a whole range at a time
+                engine.setParsers(Runtime.getRuntime().availableProcessors() - 1);
+                engine.setKeepKeyIndex(true);
+
+                // Run the comparison away from the event thread so that the UI stays responsive
+                diffTask = new DiffTask(engine);
+                diffTask.begin();
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(null, ex.getMessage(), "Data entry error", JOptionPane.ERROR_MESSAGE);
             }
 
+        } else if (e.getSource() == cancelButton) {
+            if (diffTask != null) {
+                diffTask.cancelDiff();
+            }
         } else if (e.getSource() == browseButton1) {
             jfc1 = new JFileChooser();
             int retval1 = jfc1.showOpenDialog(null);
@@ -531,23 +514,17 @@ public class CompareFiles implements ActionListener {
     }
 
     void searchForKeys (String strKeys) {
-        if (strKeys == null || strKeys.length() == 0 || sampleModel == null || sampleModel.size() == 0) {
+        if (strKeys == null || strKeys.length() == 0 || results == null) {
             return;
         }
 
-        String[] columns = delimitedStringToArray(strKeys, ",");
-        int index = -1;
-        String key;
-        for (int i = 0; i < sampleModel.size(); i++) {
-            key = sampleModel.get(i).toString();
-            key = key.replace("KEY: (", "");
-            key = key.substring(0, key.indexOf(")"));
-            if (strKeys.equals(key)) {
-                index = i;
-                resultList.setSelectedIndex(i);
-                resultList.ensureIndexIsVisible(i);
-                break;
-            }
+        // The key values may be quoted as in the files; the results know them as PackedKey.text
+        String[] columns = CsvTokenizer.split(strKeys);
+        String key = PackedKey.text(columns);
+        int index = results.indexOf(key);
+        if (index != -1) {
+            resultList.setSelectedIndex(index);
+            resultList.ensureIndexIsVisible(index);
         }
 
         try {
@@ -558,45 +535,103 @@ public class CompareFiles implements ActionListener {
         }
     }
 
-    public String[] delimitedStringToArray (String str, String delim) {
-        // ==========================================================================================================
-        // I wrote this method because I was not satisfied with the way String.split() and StringTokenizer work.
-        // The string ",abc,,ghi,," when split on comma "," should return an array of length 6 and contents:
-        // 0 => ""
-        // 1 => "abc"
-        // 2 => ""
-        // 3 => "ghi"
-        // 4 => ""
-        // 5 => ""
-        // ==========================================================================================================
-        int len = str.length();
-        ArrayList<String> arrList = new ArrayList<String>();
-
-        if (str.indexOf(delim) == -1) {
-            // No delimiter here
-            arrList.add(str);
-        } else {
-            int fromInd = 0;
-            int toInd;
-            while (fromInd <= len) {
-                toInd = str.indexOf(delim, fromInd);
-                if (fromInd == toInd) {
-                    // Found a zero length token
-                    arrList.add("");
-                    fromInd = toInd + delim.length();
-                } else if (toInd == -1) {
-                    // Load final token and break
-                    arrList.add(str.substring(fromInd));
-                    break;
-                } else {
-                    arrList.add(str.substring(fromInd, toInd));
-                    fromInd = toInd + delim.length();
+    // A comparison on a background thread. While it runs, a timer on the event thread shows the
+    // progress of its phase and adds the results found so far to the list, a batch at a time.
+    // Cancel stops it at the next block it reads, and its results are dropped.
+    class DiffTask extends SwingWorker<Void, Void> {
+        private final DiffEngine engine;
+        private final ResultListModel model;
+        private final javax.swing.Timer timer;
+
+        DiffTask (DiffEngine engine) {
+            this.engine = engine;
+            this.model = new ResultListModel(engine.getResults());
+            this.timer = new javax.swing.Timer(PROGRESS_INTERVAL, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    showProgress();
                 }
-            }
+            });
+        }
+
+        // On the event thread
+        void begin() {
+            // The results of the last comparison go, and with them what the data table and the
+            // search know of it
+            results = null;
+            diffEngine = null;
+            sampleModel = model;
+            resultList.setModel(model);
+            diffButton.setEnabled(false);
+            cancelButton.setEnabled(true);
+            progressBar.setValue(0);
+            progressBar.setString("Starting");
+            progressBar.setToolTipText(null);
+            timer.start();
+            execute();
+        }
+
+        // On the event thread
+        void cancelDiff() {
+            engine.cancel();
+            timer.stop();
+            cancelButton.setEnabled(false);
+            progressBar.setString("Cancelling");
+        }
+
+        protected Void doInBackground() throws Exception {
+            engine.run();
+            return null;
+        }
+
+        private void showProgress() {
+            model.refresh();
+            DiffMetrics metrics = engine.getMetrics();
+            int progress = metrics.getPhaseProgress();
+            progressBar.setValue(progress);
+            progressBar.setString(metrics.getPhase() + " " + progress + "%, " + metrics.getDifferences() + " differences");
+        }
+
+        protected void done() {
+            timer.stop();
+            diffTask = null;
+            // The summary line the command line prints, for a cancelled or failed run as well
+            progressBar.setToolTipText(engine.getMetrics().summary());
+            diffButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+            Throwable error = null;
+            try {
+                get();
+            } catch (ExecutionException ex) {
+                error = ex.getCause();
+            } catch (InterruptedException ex) {
+                error = ex;
+            }
+            if (error == null && engine.isCancelled()) {
+                // Cancelled just as the comparison ended: dropped all the same
+                error = new CancellationException("The comparison was cancelled.");
+            }
+            if (error != null) {
+                engine.releaseKeyIndex();
+                sampleModel = null;
+                resultList.setModel(new DefaultListModel<String>());
+                progressBar.setValue(0);
+                if (error instanceof CancellationException) {
+                    progressBar.setString("Cancelled");
+                } else {
+                    progressBar.setString("Failed");
+                    JOptionPane.showMessageDialog(null, error.getMessage(), "Data entry error", JOptionPane.ERROR_MESSAGE);
+                }
+                return;
+            }
+            model.refresh();
+            file1 = engine.getFile1();
+            file2 = engine.getFile2();
+            header = engine.getHeader();
+            results = engine.getResults();
+            diffEngine = engine;
+            progressBar.setValue(100);
+            progressBar.setString("Done, " + results.size() + " differences");
         }
-        // convert ArrayList to String[]
-        String[] arr = arrList.toArray(new String[arrList.size()]);
-        return arr;
     }
 
     class KeysExcludeSelection {
@@ -623,22 +658,20 @@ public class CompareFiles implements ActionListener {
                 throw new Exception("Either File2 does not exist or it cannot be read.");
             }
 
-            FileInputStream fis1 = new FileInputStream(strFile1);
-            Scanner scanner1 = new Scanner(fis1);
-            if (! scanner1.hasNextLine()) {
+            String str = CsvFileSession.get(strFile1).headerLine();
+            if (str == null) {
                 throw new Exception("No lines in file: " + strFile1);
             }
-            String str = scanner1.nextLine().trim();
+            str = str.trim();
             if (str.startsWith(",") || str.endsWith(",")) {
                 throw new Exception("Null columns in header of : " + strFile1);
             }
 
-            FileInputStream fis2 = new FileInputStream(strFile2);
-            Scanner scanner2 = new Scanner(fis2);
-            if (! scanner2.hasNextLine()) {
+            String str2 = CsvFileSession.get(strFile2).headerLine();
+            if (str2 == null) {
                 throw new Exception("No lines in file: " + strFile2);
             }
-            if (! str.equalsIgnoreCase(scanner2.nextLine().trim())) {            // Poor man's header comparison
+            if (! str.equalsIgnoreCase(str2.trim())) {            // Poor man's header comparison
                 throw new Exception("Headers in the two files do not match.");
             }
 
@@ -648,7 +681,7 @@ public class CompareFiles implements ActionListener {
             // Populate the hashtable with columns in "this" textbox
             Hashtable<String, Boolean> thisCol = new Hashtable<String, Boolean>();
             if (thisColumnList.length() > 0) {
-                String[] cols = thisColumnList.split(",");
+                String[] cols = CsvTokenizer.split(thisColumnList);
                 for (int i = 0; i < cols.length; i++) {
                     thisCol.put(cols[i], true);
                 }
@@ -657,7 +690,7 @@ public class CompareFiles implements ActionListener {
             // Populate the hashtable with columns in "other" textbox
             Hashtable<String, Boolean> otherCol = new Hashtable<String, Boolean>();
             if (otherColumnList.length() > 0) {
-                String[] columns = otherColumnList.split(",");
+                String[] columns = CsvTokenizer.split(otherColumnList);
                 for (int i = 0; i < columns.length; i++) {
                     otherCol.put(columns[i], true);
                 }
@@ -677,43 +710,16 @@ public class CompareFiles implements ActionListener {
             // Now populate the DefaultListModel with columns other than that in otherCol Hashtable
             ArrayList<Integer> listIndices = new ArrayList<Integer>();
             columnListModel = new DefaultListModel();
-            int len = str.length();
-            if (str.indexOf(",") == -1) {
-                if (! otherCol.containsKey(str)) {
-                    columnListModel.addElement(str);
-                    if (thisCol.containsKey(str)) {
+            // Balk if any column name is null or consists of blank spaces
+            String[] names = DiffEngine.splitList(str);
+            if (names == null) {
+                throw new Exception("Null columns in header of : " + strFile1);
+            }
+            for (String name : names) {
+                if (! otherCol.containsKey(name)) {
+                    columnListModel.addElement(name);
+                    if (thisCol.containsKey(name)) {
                         listIndices.add(new Integer(columnListModel.size() - 1));
-                        //selIndices[iter] = columnListModel.size() - 1;
-                    }
-                }
-            } else {
-                int fromInd = 0;
-                int toInd;
-                while (fromInd <= len) {
-                    toInd = str.indexOf(",", fromInd);
-                    // Balk if any key is null or consists of blank spaces
-                    if (fromInd == toInd) {
-                        throw new Exception("Null columns in header of : " + strFile1);
-                    } else if (toInd == -1) {
-                        // Load final token and break
-                        if (! otherCol.containsKey(str.substring(fromInd))) {
-                            columnListModel.addElement(str.substring(fromInd));
-                            if (thisCol.containsKey(str.substring(fromInd))) {
-                                  listIndices.add(new Integer(columnListModel.size() - 1));
-                            }
-                        }
-                        break;
-                    } else {
-                        if (str.substring(fromInd, toInd).trim().compareTo("") == 0) {
-                            throw new Exception("Null columns in header of : " + strFile1);
-                        }
-                        if (! otherCol.containsKey(str.substring(fromInd, toInd))) {
-                            columnListModel.addElement(str.substring(fromInd, toInd));
-                            if (thisCol.containsKey(str.substring(fromInd, toInd))) {
-                                  listIndices.add(new Integer(columnListModel.size() - 1));
-                            }
-                        }
-                        fromInd = toInd + 1;
                     }
                 }
             }
@@ -768,7 +774,7 @@ public class CompareFiles implements ActionListener {
                 public void actionPerformed(ActionEvent event) {
                     String finalList = "";
                     for (int i = 0; i < columnList.getSelectedValues().length; i++) {
-                        finalList += "," + (columnList.getSelectedValues())[i];
+                        finalList += "," + CsvTokenizer.quote((String) (columnList.getSelectedValues())[i]);
                     }
                     if (finalList.length() != 0) {
                         tf.setText(finalList.substring(1));
@@ -788,18 +794,20 @@ public class CompareFiles implements ActionListener {
         frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         JTextArea ta = new JTextArea();
         JScrollPane scrollPane = new JScrollPane(ta);
-        FileInputStream fis = new FileInputStream(file);
-        Scanner scanner = new Scanner(fis);
         int lineNumber = 0;
         int linesForPreview = 100;
         String line;
-        while (scanner.hasNextLine()) {
-            line = scanner.nextLine();
-            lineNumber++;
-            if (lineNumber >= linesForPreview) {
-                break;
+        LineReader reader = new LineReader(strFile);
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber >= linesForPreview) {
+                    break;
+                }
+                ta.append(line + "\n");
             }
-            ta.append(line + "\n");
+        } finally {
+            reader.close();
         }
         ta.setCaretPosition(0);
         ta.setEditable(false);
@@ -808,384 +816,6 @@ public class CompareFiles implements ActionListener {
         frame.setVisible(true);
     }
 
-    public void loadData (String strFile) throws Exception {
-        String line, key, token;
-        boolean isFirstLine = true;
-        int fromInd, toInd, len, iter;
-        dataHash = new Hashtable<String, String[]>();
-        String[] data;
-        int lineNumber = 0;
-
-        FileInputStream fis = new FileInputStream(strFile);
-        Scanner scanner = new Scanner(fis);
-        while (scanner.hasNextLine()) {
-            line = scanner.nextLine();
-            lineNumber++;
-            // Skip the header line
-            if (isFirstLine) {
-                isFirstLine = false;
-                continue;
-            }
-            fromInd = 0;
-            len = line.length();
-            iter = 0;
-            key = "";
-            data = new String[header.size() + 1];  // header cols + last col has the line number
-            while (fromInd <= len) {
-                if (iter >= header.size()) {
-                    break;
-                }
-                toInd = line.indexOf(",", fromInd);
-
-                if (toInd == -1) {
-                    token = line.substring(fromInd);
-                    fromInd = len + 1;
-                } else {
-                    token = line.substring(fromInd, toInd);
-                    fromInd = toInd + 1;
-                }
-
-                if (header.get(iter).getIsKey()) {
-                    // this is a key value, append to key string and add null string to data array
-                    key += "," + token;
-                    data[iter] = "";
-                } else if (header.get(iter).getIsExclude()) {
-                    // this is an exclude value, add null string to data array
-                    data[iter] = "";
-                } else {
-                    // neither key nor exclude column, add to data array
-                    data[iter] = token;
-                }
-
-                iter++;
-            }
-            key = key.substring(1);
-            data[iter] = String.valueOf(lineNumber);
-            dataHash.put(key, data);
-        }
-    }
-
-    public void compareData (String strFile) throws Exception {
-        String line, key, token;
-        boolean isFirstLine = true;
-        int fromInd, toInd, len, iter;
-        String[] data;
-        int lineNumber = 0;
-        cmpMetaData = new ArrayList<ComparisonMetaData>();
-
-        FileInputStream fis = new FileInputStream(strFile);
-        Scanner scanner = new Scanner(fis);
-        while (scanner.hasNextLine()) {
-            line = scanner.nextLine();
-            lineNumber++;
-            // Skip the header line
-            if (isFirstLine) {
-                isFirstLine = false;
-                continue;
-            }
-            fromInd = 0;
-            len = line.length();
-            iter = 0;
-            key = "";
-            data = new String[header.size() + 1];
-            while (fromInd <= len) {
-                if (iter >= header.size()) {
-                    break;
-                }
-                toInd = line.indexOf(",", fromInd);
-
-                if (toInd == -1) {
-                    token = line.substring(fromInd);
-                    fromInd = len + 1;
-                } else {
-                    token = line.substring(fromInd, toInd);
-                    fromInd = toInd + 1;
-                }
-
-                if (header.get(iter).getIsKey()) {
-                    // this is a key value, append to key string and add null string to data array
-                    key += "," + token;
-                    data[iter] = "";
-                } else if (header.get(iter).getIsExclude()) {
-                    // this is an exclude value, add null string to data array
-                    data[iter] = "";
-                } else {
-                    // neither key nor exclude column, add to data array
-                    data[iter] = token;
-                }
-
-                iter++;
-            }
-            key = key.substring(1);
-            data[iter] = String.valueOf(lineNumber);
-            // if the key does not exist in dataHash, then print message
-            // otherwise compare their value arrays
-            if (dataHash.containsKey(key)) {
-                String mismatches = findMismatches (data, dataHash.get(key));
-                if (mismatches.compareTo("") != 0) {
-                    String[] dataArray = dataHash.get(key);
-                    int leftLineNum = Integer.parseInt(dataArray[dataArray.length-1]);
-                    // Add to main ArrayList
-                    ComparisonMetaData cmp = new ComparisonMetaData(leftLineNum, lineNumber);
-                    cmpMetaData.add(cmp);
-                    sampleModel.addElement(String.format ("KEY: %-30s => Mismatched columns = %s\n", "("+key+")", mismatches));
-                }
-                // remove this key from the dataHash, since comparison is done
-                dataHash.remove(key);
-            } else {
-                ComparisonMetaData cmp = new ComparisonMetaData(-1, lineNumber);
-                cmpMetaData.add(cmp);
-                sampleModel.addElement(String.format ("KEY: %-30s => Found only in %s\n", "("+key+")", strFile));
-            }
-        }
-        // The remaining keys in dataHash are the ones found only in the first file
-        Enumeration dataEnum = dataHash.keys();
-        String dataKey;
-        String[] arr;
-        int leftLine;
-        while (dataEnum.hasMoreElements()) {
-            dataKey = (String) dataEnum.nextElement();
-            arr = (String[])dataHash.get(dataKey);
-            leftLine = Integer.parseInt(arr[arr.length-1]);
-            ComparisonMetaData cmp = new ComparisonMetaData(leftLine, -1);
-            cmpMetaData.add(cmp);
-            sampleModel.addElement(String.format ("KEY: %-30s => Found only in %s\n", "("+dataKey+")", file1));
-            dataHash.remove(dataKey);
-        }
-    }
-
-    public String findMismatches (String[] arr1, String[] arr2) throws Exception {
-        String columnList = "";
-        for (int i = 0; i < arr1.length - 1; i++) {
-            if (areUnequal(arr1[i], arr2[i])) {
-                columnList += "," + header.get(i).getName() + ":" + (i + 1);
-            }
-        }
-        if (columnList.compareTo("") != 0) {
-            columnList = columnList.substring(1);
-        }
-        return columnList;
-    }
-
-    public boolean areUnequal (String value1, String value2) {
-        boolean comparisonOutcome;
-        if (isNumber(value1) && isNumber(value2)) {
-            comparisonOutcome = Math.abs(Math.abs(Double.parseDouble(value1)) - Math.abs(Double.parseDouble(value2))) >= tolerance;
-        } else {
-            comparisonOutcome = !value1.equals(value2);
-        }
-        return comparisonOutcome;
-    }
-
-    public void readHeader (String strFile) throws Exception {
-        header = new ArrayList<HeaderCol>();
-        FileInputStream fis = new FileInputStream(strFile);
-        Scanner scanner = new Scanner(fis);
-
-        if (! scanner.hasNextLine()) {
-            throw new Exception("No lines in file: " + strFile);
-        }
-
-        String str = scanner.nextLine().trim();
-        int len = str.length();
-
-        if (str.startsWith(",") || str.endsWith(",")) {
-            throw new Exception("Null columns in header of : " + strFile);
-        } else if (str.indexOf(",") == -1) {
-            HeaderCol hc = new HeaderCol(str, false, false);
-            if (keyHash.containsKey(str)) {
-                hc.setIsKey(true);
-                keyHash.put(str, true);
-            } else if (excludeHash.containsKey(str)) {
-                hc.setIsExclude(true);
-                excludeHash.put(str, true);
-            }
-            header.add(hc);
-        } else {
-            int fromInd = 0;
-            int toInd;
-            while (fromInd <= len) {
-                toInd = str.indexOf(",", fromInd);
-                // Balk if any key is null or consists of blank spaces
-                if (fromInd == toInd) {
-                    throw new Exception("Null columns in header of : " + strFile);
-                } else if (toInd == -1) {
-                    // Load final token and break
-                    HeaderCol hc = new HeaderCol(str.substring(fromInd), false, false);
-                    if (keyHash.containsKey(str.substring(fromInd))) {
-                        hc.setIsKey(true);
-                        keyHash.put(str.substring(fromInd), true);
-                    } else if (excludeHash.containsKey(str.substring(fromInd))) {
-                        hc.setIsExclude(true);
-                        excludeHash.put(str.substring(fromInd), true);
-                    }
-                    header.add(hc);
-                    break;
-                } else {
-                    if (str.substring(fromInd, toInd).trim().compareTo("") == 0) {
-                        throw new Exception("Null columns in header of : " + strFile);
-                    }
-                    HeaderCol hc = new HeaderCol(str.substring(fromInd, toInd), false, false);
-                    if (keyHash.containsKey(str.substring(fromInd, toInd))) {
-                        hc.setIsKey(true);
-                        keyHash.put(str.substring(fromInd, toInd), true);
-                    } else if (excludeHash.containsKey(str.substring(fromInd, toInd))) {
-                        hc.setIsExclude(true);
-                        excludeHash.put(str.substring(fromInd, toInd), true);
-                    }
-                    header.add(hc);
-                    fromInd = toInd + 1;
-                }
-            }
-        }
-
-        // Balk if any key or exclude columns were not found in the header
-        Enumeration keyCols = keyHash.keys();
-        String key;
-        while (keyCols.hasMoreElements()) {
-            key = (String) keyCols.nextElement();
-            if ((Boolean)keyHash.get(key) == false) {
-                throw new Exception("Key column " + key + " not found in header.");
-            }
-        }
-
-        Enumeration excludeCols = excludeHash.keys();
-        String excludeKey;
-        while (excludeCols.hasMoreElements()) {
-            excludeKey = (String) excludeCols.nextElement();
-            if ((Boolean)excludeHash.get(excludeKey) == false) {
-                throw new Exception("Exclude column " + excludeKey + " not found in header.");
-            }
-        }
-
-    }
-
-    public void compareHeaders (String strFile) throws Exception {
-        int iter = 0;
-        FileInputStream fis = new FileInputStream(strFile);
-        Scanner scanner = new Scanner(fis);
-
-        if (! scanner.hasNextLine()) {
-            throw new Exception("No lines in file: " + strFile);
-        }
-
-        String str = scanner.nextLine().trim();
-        int len = str.length();
-
-        if (str.startsWith(",") || str.endsWith(",")) {
-            throw new Exception("Null columns in header of : " + strFile);
-        } else if (str.indexOf(",") == -1) {
-            if (header.get(iter).getName().compareTo(str) != 0) {
-                throw new Exception("Headers of the two files do not match.");
-            }
-        } else {
-            int fromInd = 0;
-            int toInd;
-            while (fromInd <= len) {
-                if (iter >= header.size()) {   // Header of File2 is longer than File1 and all tokens of File1 match with those of File2
-                    throw new Exception("Headers of the two files do not match.");
-                }
-
-                toInd = str.indexOf(",", fromInd);
-                // Balk if any key is null or consists of blank spaces
-                if (fromInd == toInd) {
-                    throw new Exception("Null columns in header of : " + strFile);
-                } else if (toInd == -1) {
-                    // Compare final token and break
-                    if (header.get(iter).getName().compareTo(str.substring(fromInd)) != 0) {
-                        throw new Exception("Headers of the two files do not match.");
-                    }
-                    break;
-                } else {
-                    if (str.substring(fromInd, toInd).trim().compareTo("") == 0) {
-                        throw new Exception("Null columns in header of : " + strFile);
-                    }
-                    // Compare current token with the corresponding element name in header ArrayList
-                    if (header.get(iter).getName().compareTo(str.substring(fromInd, toInd)) != 0) {
-                        throw new Exception("Headers of the two files do not match.");
-                    }
-                    fromInd = toInd + 1;
-                }
-                iter++;
-            }
-        }
-        if (iter < header.size() - 1) {   // Header of File2 is shorter than File1 and all tokens of File2 match with those of File1
-            throw new Exception("Headers of the two files do not match.");
-        }
-    }
-
-    class HeaderCol {
-        private String name;
-        private boolean isKey;
-        private boolean isExclude;
-        HeaderCol (String n, boolean k, boolean ex) {
-            name = n;
-            isKey = k;
-            isExclude = ex;
-        }
-        void setIsKey(boolean k) { isKey = k; }
-        void setIsExclude(boolean ex) { isExclude = ex; }
-        String getName()  { return name; }
-        boolean getIsKey() { return isKey; }
-        boolean getIsExclude() { return isExclude; }
-    }
-
-    class ComparisonMetaData {
-        private int leftLineNumber;
-        private int rightLineNumber;
-        ComparisonMetaData (int left, int right) {
-            leftLineNumber = left;
-            rightLineNumber = right;
-        }
-        void setLeftLineNumber(int lineNumber) { leftLineNumber = lineNumber; }
-        void setRightLineNumber(int lineNumber) { rightLineNumber = lineNumber; }
-        int getLeftLineNumber() { return leftLineNumber; }
-        int getRightLineNumber() { return rightLineNumber; }
-    }
-
-    public boolean isNumber (String o) {
-        boolean isNum = false;
-        try {
-            Double.valueOf(o);
-            isNum = true;
-        } catch (NumberFormatException e) {
-            isNum = false;
-        }
-        return isNum;
-    }
-
-    public void populateHash (String str, Hashtable<String, Boolean> hash, String strType) throws Exception {
-        // Populate the keys and exclude hashes
-        String strList = str.trim();
-        int strLen = strList.length();
-
-        if (strList.startsWith(",") || strList.endsWith(",")) {
-            throw new Exception("Null " + strType + " entered.");
-        } else if (strList.indexOf(",") == -1) {
-            hash.put(strList, false);
-        } else {
-            int fromInd = 0;
-            int toInd;
-            while (fromInd <= strLen) {
-                toInd = strList.indexOf(",", fromInd);
-                // Balk if any key is null or consists of blank spaces
-                if (fromInd == toInd) {
-                    throw new Exception("Null " + strType + " entered.");
-                } else if (toInd == -1) {
-                    // Load final token and break
-                    hash.put(strList.substring(fromInd), false);
-                    break;
-                } else {
-                    if (strList.substring(fromInd, toInd).trim().compareTo("") == 0) {
-                        throw new Exception("Null " + strType + " entered.");
-                    }
-                    hash.put(strList.substring(fromInd, toInd), false);
-                    fromInd = toInd + 1;
-                }
-            }
-        }
-    }
-
     private static void createAndShowGUI() {
         JFrame.setDefaultLookAndFeelDecorated(true);
         JFrame frame = new JFrame("Compare Files");
@@ -1197,6 +827,9 @@ public class CompareFiles implements ActionListener {
     }
 
     public static void main(String[] args) {
+        // The UI runs for long enough to watch its comparisons over JMX
+        DiffMetrics.setJmx(true);
+
         //Schedule a job for the event-dispatching thread:
         //creating and showing this application's GUI.
         SwingUtilities.invokeLater(new Runnable() {
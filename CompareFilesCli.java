@@ -0,0 +1,153 @@
+/*
+ * =============================================================================================
+ * Name: CompareFilesCli.java
+ * Desc: A headless front end for DiffEngine, for machines without a display.
+ *       Takes the same options as compare_files.py and prints the results to standard output
+ *       as soon as they are found, as text (the default), csv or JSON Lines.
+ * Usage: java CompareFilesCli -f file1.csv,file2.csv -k <key_list> -p <precision> -x <exclude_list>
+ *                             [-t <threads>] [-P <parsers>] [-a hash|index|sort|partition|merge]
+ *                             [-m <memory_mb>] [-o text|csv|jsonl] [-i <index_file>] [-e <charset>]
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+public class CompareFilesCli {
+
+    // ==============================================================================
+    // ERROR CODES
+    // ==============================================================================
+    static final int E_INVALID_ARGS = 1;
+    static final int E_DIFF_FAILED = 2;
+
+    static void usage() {
+        System.err.println("Usage: java CompareFilesCli -f file1,file2 -k <KEY> -p <N> -x <EXCLUDE> [-t <THREADS>] [-P <PARSERS>] [-a <ALGORITHM>] [-m <MB>] [-o <FORMAT>] [-i <INDEX>] [-e <CHARSET>]");
+        System.err.println("       <KEY>     = comma-delimited list of key columns");
+        System.err.println("       <N>       = tolerance for floating-point values (default 0.01)");
+        System.err.println("       <EXCLUDE> = comma-delimited list of columns excluded from comparison");
+        System.err.println("       <THREADS> = number of threads comparing File 2 (default 1)");
+        System.err.println("       <PARSERS> = number of parser threads overlapping reading, parsing and comparing (default 0: none)");
+        System.err.println("       <ALGORITHM> = hash (load File 1 into memory, default) or");
+        System.err.println("                     index (load only keys and line offsets of File 1, re-read rows that differ) or");
+        System.err.println("                     sort (sort both files on disk, for files larger than the heap) or");
+        System.err.println("                     partition (split both files into buckets on disk by key, idem) or");
+        System.err.println("                     merge (stream both files side by side if they are sorted by key, else hash)");
+        System.err.println("       <MB>      = memory budget in MB for the sort and partition algorithms (default 256)");
+        System.err.println("       <FORMAT>  = text (default), csv or jsonl (JSON Lines)");
+        System.err.println("       <INDEX>   = file that keeps the loaded File 1 (hash and index algorithms) for the next run");
+        System.err.println("       <CHARSET> = charset of both files, e.g. windows-1252 (default UTF-8)");
+        System.exit(E_INVALID_ARGS);
+    }
+
+    public static void main(String[] args) {
+        String fileList = null, keyList = null, precision = null, excludeList = null;
+        int threads = 1;
+        int parsers = 0;
+        String algorithm = "hash";
+        long memoryMb = 256;
+        String format = "text";
+        String indexFile = null;
+        Charset charset = StandardCharsets.UTF_8;
+
+        if (args.length == 0) {
+            usage();
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            if (args[i].equals("-f")) {
+                fileList = args[++i];
+            } else if (args[i].equals("-k")) {
+                keyList = args[++i];
+            } else if (args[i].equals("-p")) {
+                precision = args[++i];
+            } else if (args[i].equals("-x")) {
+                excludeList = args[++i];
+            } else if (args[i].equals("-t")) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException ex) {
+                    usage();
+                }
+            } else if (args[i].equals("-P")) {
+                try {
+                    parsers = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException ex) {
+                    usage();
+                }
+            } else if (args[i].equals("-i")) {
+                indexFile = args[++i];
+            } else if (args[i].equals("-e")) {
+                try {
+                    charset = Charset.forName(args[++i]);
+                } catch (IllegalArgumentException ex) {
+                    usage();
+                }
+            } else if (args[i].equals("-a")) {
+                algorithm = args[++i];
+            } else if (args[i].equals("-o")) {
+                format = args[++i];
+                if (! format.equals("text") && ! format.equals("csv") && ! format.equals("jsonl")) {
+                    usage();
+                }
+            } else if (args[i].equals("-m")) {
+                try {
+                    memoryMb = Long.parseLong(args[++i]);
+                } catch (NumberFormatException ex) {
+                    usage();
+                }
+            } else {
+                usage();
+            }
+        }
+        if (fileList == null || keyList == null) {
+            usage();
+        }
+        String[] files = DiffEngine.splitList(fileList);
+        if (files == null || files.length != 2) {
+            usage();
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        try {
+            DiffEngine engine = new DiffEngine(files[0], files[1], keyList, precision, excludeList);
+            if (format.equals("csv")) {
+                engine.setSink(new CsvDiffSink(out));
+            } else if (format.equals("jsonl")) {
+                engine.setSink(new JsonLinesDiffSink(out));
+            } else {
+                engine.setSink(new TextDiffSink(out));
+            }
+            engine.setParallelism(threads);
+            engine.setParsers(parsers);
+            if (indexFile != null) {
+                engine.setIndexFile(new File(indexFile));
+            }
+            engine.setAlgorithm(algorithm);
+            engine.setCharset(charset);
+            if (charset.equals(StandardCharsets.UTF_8)) {
+                for (String f : files) {
+                    if (! CsvFileSession.get(f).isUtf8()) {
+                        System.err.println("Warning: " + f + " is not UTF-8; use -e <charset> to read it in its charset.");
+                    }
+                }
+            }
+            engine.setMemoryBudget(memoryMb << 20);
+            engine.run();
+            out.flush();
+            System.err.println(engine.getMetrics().summary());
+        } catch (Exception ex) {
+            out.flush();
+            System.err.println(ex.getMessage() + " Abnormal exit.");
+            System.exit(E_DIFF_FAILED);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * =============================================================================================
+ * Name: CsvDiffSink.java
+ * Desc: Writes the results as a csv report, one line per result:
+ *           result,<key columns>,file1_line,file2_line,mismatched_columns
+ *       result is mismatch, file1_only or file2_only; there is one column per key column,
+ *       named as in the header of the files (a key column missing from a short line is
+ *       empty); a line number is empty when the key is not in that file; mismatched_columns
+ *       lists name:position of each mismatched column, separated by commas. Fields are quoted
+ *       as RFC 4180 wants it when they need to be.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+class CsvDiffSink implements DiffSink {
+    private final Writer out;
+    private DiffEngine engine;
+    private int keyCount;
+
+    CsvDiffSink (Writer out) {
+        this.out = out;
+    }
+
+    public void start(DiffEngine engine) throws IOException {
+        this.engine = engine;
+        out.write("result");
+        keyCount = 0;
+        for (HeaderCol hc : engine.getHeader()) {
+            if (hc.getIsKey()) {
+                out.write(',');
+                out.write(CsvTokenizer.quote(hc.getName()));
+                keyCount++;
+            }
+        }
+        out.write(",file1_line,file2_line,mismatched_columns\n");
+    }
+
+    public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException {
+        writeLine("mismatch", key, leftLine, rightLine, engine.mismatchList(columns));
+    }
+
+    public void leftOnly(String[] key, int leftLine) throws IOException {
+        writeLine("file1_only", key, leftLine, -1, "");
+    }
+
+    public void rightOnly(String[] key, int rightLine) throws IOException {
+        writeLine("file2_only", key, -1, rightLine, "");
+    }
+
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    private void writeLine(String result, String[] key, int leftLine, int rightLine, String columns) throws IOException {
+        out.write(result);
+        for (int i = 0; i < keyCount; i++) {
+            out.write(',');
+            out.write(i < key.length ? CsvTokenizer.quote(key[i]) : "");
+        }
+        out.write(',');
+        out.write(leftLine == -1 ? "" : String.valueOf(leftLine));
+        out.write(',');
+        out.write(rightLine == -1 ? "" : String.valueOf(rightLine));
+        out.write(',');
+        out.write(CsvTokenizer.quote(columns));
+        out.write('\n');
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * =============================================================================================
+ * Name: CsvFileSession.java
+ * Desc: What has been learnt about a csv file so far, shared by everything that reads it: the
+ *       header line and its column names, the encoding, the types of the columns (inferred
+ *       from the first data lines) and the line index with the line count. Each of them is
+ *       found out the first time it is asked for and kept until the file changes, so that
+ *       re-running a comparison with other keys or exclude columns, or looking at a result in
+ *       the data table, does not read the file again for things that are known already.
+ *       Sessions are kept by the canonical path of the file; get() starts a new one when the
+ *       size or the modification time of the file is no longer what it was.
+ *       The encoding is found out from the first ENCODING_SAMPLE bytes of the file: UTF-8 if
+ *       they are valid UTF-8 (with or without a byte order mark), else "not UTF-8".
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+class CsvFileSession {
+    private static final HashMap<String, CsvFileSession> sessions = new HashMap<String, CsvFileSession>();
+    static final int ENCODING_SAMPLE = 1 << 20;
+    static final String NOT_UTF8 = "not UTF-8";
+
+    private final String file;
+    private final long size;
+    private final long modified;
+    private String headerLine;
+    private String[] columnNames;
+    private String encoding;
+    private ColumnType[] columnTypes;
+    private LineIndex lineIndex;
+
+    private CsvFileSession (String file, long size, long modified) {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    // The session of a file, a new one if the file changed since the last call
+    static CsvFileSession get(String strFile) throws IOException {
+        File f = new File(strFile);
+        String path = f.getCanonicalPath();
+        long size = f.length();
+        long modified = f.lastModified();
+        synchronized (sessions) {
+            CsvFileSession session = sessions.get(path);
+            if (session == null || session.size != size || session.modified != modified) {
+                session = new CsvFileSession(strFile, size, modified);
+                sessions.put(path, session);
+            }
+            return session;
+        }
+    }
+
+    String getFile() { return file; }
+
+    // The first line of the file, or null if the file is empty
+    synchronized String headerLine() throws IOException {
+        if (headerLine == null) {
+            readHead();
+        }
+        return headerLine;
+    }
+
+    // The column names of the header line (see DiffEngine.splitList), or null if the file is
+    // empty or any of them is blank
+    synchronized String[] columnNames() throws IOException {
+        String line = headerLine();
+        if (line == null) {
+            return null;
+        }
+        if (columnNames == null) {
+            columnNames = DiffEngine.splitList(line.trim());
+        }
+        return columnNames == null ? null : columnNames.clone();
+    }
+
+    // "UTF-8" or, with a byte order mark, "UTF-8 (BOM)", which LineReader reads both; NOT_UTF8
+    // if the sample is not valid UTF-8 (say ISO-8859-1 or windows-1252), which has to be read
+    // in its own charset (see DiffEngine.setCharset)
+    synchronized String encoding() throws IOException {
+        if (encoding == null) {
+            readHead();
+        }
+        return encoding;
+    }
+
+    synchronized boolean isUtf8() throws IOException {
+        return ! encoding().equals(NOT_UTF8);
+    }
+
+    private void readHead() throws IOException {
+        byte[] sample = new byte[(int) Math.min(size, ENCODING_SAMPLE)];
+        int n = 0;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int r;
+            while (n < sample.length && (r = in.read(sample, n, sample.length - n)) > 0) {
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        boolean hasBom = n >= 3 && sample[0] == (byte) 0xEF && sample[1] == (byte) 0xBB && sample[2] == (byte) 0xBF;
+        // A character cut off at the end of the sample does not count
+        int end = n;
+        if (n == ENCODING_SAMPLE) {
+            while (end > n - 3 && (sample[end - 1] & 0xC0) == 0x80) {
+                end--;
+            }
+            if (end > 0 && (sample[end - 1] & 0x80) != 0) {
+                end--;
+            }
+        }
+        if (! CsvTokenizer.isUtf8(sample, 0, end)) {
+            encoding = NOT_UTF8;
+        } else {
+            encoding = hasBom ? "UTF-8 (BOM)" : "UTF-8";
+        }
+        headerLine = LineReader.readFirstLine(file);
+    }
+
+    // The type of every header column, inferred from the first DiffEngine.TYPE_SAMPLE_ROWS data lines;
+    // columns missing from a short line count as empty there
+    synchronized ColumnType[] columnTypes() throws IOException {
+        String[] names = columnNames();
+        if (names == null) {
+            return null;
+        }
+        if (columnTypes == null) {
+            ColumnType[] types = new ColumnType[names.length];
+            Arrays.fill(types, ColumnType.EMPTY);
+            CsvTokenizer tokenizer = new CsvTokenizer();
+            LineReader reader = new LineReader(file);
+            try {
+                // Skip the header line
+                reader.nextLine();
+                for (int n = 0; n < DiffEngine.TYPE_SAMPLE_ROWS && reader.nextLine(); n++) {
+                    int count = tokenizer.split(reader.buffer(), reader.lineStart(), reader.lineEnd(), names.length);
+                    for (int i = 0; i < names.length; i++) {
+                        types[i] = ColumnType.merge(types[i], ColumnType.classify(i < count ? tokenizer.field(i) : ""));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            columnTypes = types;
+        }
+        return columnTypes.clone();
+    }
+
+    // The line index of the whole file: the one a full pass over the file handed in (see
+    // setLineIndex), or else one built by a pass of its own
+    synchronized LineIndex lineIndex() throws IOException {
+        if (lineIndex == null) {
+            lineIndex = LineIndex.build(file);
+        }
+        return lineIndex;
+    }
+
+    // The line index made by a pass over all lines of the file, to spare lineIndex() a pass
+    synchronized void setLineIndex(LineIndex index) {
+        if (index != null && lineIndex == null) {
+            lineIndex = index;
+        }
+    }
+
+    // Number of data lines (header excluded)
+    synchronized int rowCount() throws IOException {
+        return Math.max(0, lineIndex().lineCount() - 1);
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * =============================================================================================
+ * Name: CsvTokenizer.java
+ * Desc: The csv field splitter shared by the engine, the readers and the Swing UI. Fields are
+ *       separated by commas and may be quoted as RFC 4180 has it: a field that starts with a
+ *       double quote runs to the matching closing quote, may contain commas and line breaks,
+ *       and has its double quotes doubled. A quote anywhere else in a field is an ordinary
+ *       character, as in the files this tool has always compared, and so is an opening quote
+ *       that is never closed (see LineReader).
+ *       The bytes are scanned a long (8 bytes) at a time: a word without any comma or quote
+ *       (or, inside quotes, without any quote) is skipped as a whole, SWAR style. split() only
+ *       records where the fields start and end; field() makes the String of a field when it is
+ *       needed. A tokenizer is not thread safe: use one per thread.
+ *       Fields are decoded in the charset of the tokenizer (UTF-8 unless another is given; it
+ *       has to be ASCII compatible). A field whose bytes are not valid in that charset is not
+ *       decoded with replacement characters, which would make different values equal: each of
+ *       its bytes becomes one char instead, as in ISO-8859-1.
+ *       recordEnd() uses the same rules to find the line break that ends a record, so that
+ *       LineReader can return records that span lines.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class CsvTokenizer {
+    static final long COMMAS = 0x2C2C2C2C2C2C2C2CL;
+    static final long QUOTES = 0x2222222222222222L;
+    static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    // Scan states of recordEnd(); a scan starts UNQUOTED at the start of a record
+    static final int UNQUOTED = 0;
+    static final int QUOTED = 1;
+    static final int QUOTE_IN_QUOTED = 2;     // just after a quote inside a quoted field
+
+    // The fields of the last split record
+    private byte[] buf;
+    private ByteBuffer words;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private boolean[] fieldQuoted = new boolean[16];
+    private int fieldCount;
+    private boolean anyQuoted;
+    private boolean ascii;
+    private byte[] scratch = new byte[64];
+
+    private final Charset charset;
+    private CharsetDecoder decoder;     // for a charset other than UTF-8 and ISO-8859-1
+
+    CsvTokenizer () {
+        this(StandardCharsets.UTF_8);
+    }
+
+    CsvTokenizer (Charset cs) {
+        charset = cs;
+    }
+
+    // The high bit of each byte of word that equals the byte repeated in pattern (exact, no
+    // false positives from carries)
+    static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    // A little-endian view of b for reading words; cached for the array last used
+    private ByteBuffer words(byte[] b) {
+        if (b != buf) {
+            buf = b;
+            words = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return words;
+    }
+
+    // Split the record b[start, end) into fields. Only the first maxFields fields are looked
+    // at; anything after them is ignored. Returns the number of fields found.
+    int split(byte[] b, int start, int end, int maxFields) {
+        ByteBuffer w = words(b);
+        long high = 0;
+        int count = 0;
+        boolean quotes = false;
+        int i = start;
+        while (count < maxFields) {
+            int from = i;
+            boolean quoted = i < end && b[i] == '"';
+            if (quoted) {
+                // Skip to the closing quote; a doubled quote is part of the field
+                i++;
+                while (true) {
+                    while (i + 8 <= end) {
+                        long word = w.getLong(i);
+                        high |= word;
+                        long m = matches(word, QUOTES);
+                        if (m != 0) {
+                            i += Long.numberOfTrailingZeros(m) >>> 3;
+                            break;
+                        }
+                        i += 8;
+                    }
+                    while (i < end && b[i] != '"') {
+                        high |= b[i];
+                        i++;
+                    }
+                    if (i + 1 < end && b[i + 1] == '"') {
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                if (i < end) {
+                    i++;
+                    quotes = true;
+                } else {
+                    // Never closed: the quote is an ordinary character
+                    quoted = false;
+                    i = from;
+                }
+            }
+            // Up to the next comma (after a closing quote there should be nothing else)
+            while (i + 8 <= end) {
+                long word = w.getLong(i);
+                long m = matches(word, COMMAS);
+                if (m != 0) {
+                    int n = Long.numberOfTrailingZeros(m) >>> 3;
+                    high |= n == 0 ? 0 : word & (-1L >>> (64 - 8 * n));
+                    i += n;
+                    break;
+                }
+                high |= word;
+                i += 8;
+            }
+            while (i < end && b[i] != ',') {
+                high |= b[i];
+                i++;
+            }
+            if (count == fieldStart.length) {
+                int n = count * 2;
+                fieldStart = Arrays.copyOf(fieldStart, n);
+                fieldEnd = Arrays.copyOf(fieldEnd, n);
+                fieldQuoted = Arrays.copyOf(fieldQuoted, n);
+            }
+            fieldStart[count] = from;
+            fieldEnd[count] = i;
+            fieldQuoted[count] = quoted;
+            count++;
+            if (i >= end) {
+                break;
+            }
+            i++;
+        }
+        fieldCount = count;
+        anyQuoted = quotes;
+        ascii = (high & HIGH_BITS) == 0;
+        return count;
+    }
+
+    int fieldCount() { return fieldCount; }
+    int fieldStart(int i) { return fieldStart[i]; }
+    int fieldEnd(int i) { return fieldEnd[i]; }
+    boolean isQuoted(int i) { return fieldQuoted[i]; }
+    boolean anyQuoted() { return anyQuoted; }
+
+    // The value of field i of the last split record, without its quotes
+    String field(int i) {
+        int s = fieldStart[i];
+        int e = fieldEnd[i];
+        if (! fieldQuoted[i]) {
+            return s == e ? "" : decode(buf, s, e - s);
+        }
+        return decode(scratch, 0, unquote(i));
+    }
+
+    // Copy the bytes of the quoted field i of the last split record to unquoted(), without its
+    // quotes; returns their number
+    int unquote(int i) {
+        int s = fieldStart[i];
+        int e = fieldEnd[i];
+        // Drop the quotes and undouble the quotes inside; text after the closing quote is kept
+        if (scratch.length < e - s) {
+            scratch = new byte[Math.max(e - s, scratch.length * 2)];
+        }
+        int n = 0;
+        int j = s + 1;
+        while (j < e) {
+            if (buf[j] == '"') {
+                if (j + 1 < e && buf[j + 1] == '"') {
+                    scratch[n++] = '"';
+                    j += 2;
+                    continue;
+                }
+                j++;
+                while (j < e) {
+                    scratch[n++] = buf[j++];
+                }
+                break;
+            }
+            scratch[n++] = buf[j++];
+        }
+        return n;
+    }
+
+    byte[] unquoted() { return scratch; }
+
+    private String decode(byte[] b, int s, int n) {
+        if (ascii || charset.equals(StandardCharsets.ISO_8859_1)) {
+            return new String(b, s, n, StandardCharsets.ISO_8859_1);
+        }
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return new String(b, s, n, isUtf8(b, s, s + n) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+        }
+        if (decoder == null) {
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                             .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        try {
+            return decoder.decode(ByteBuffer.wrap(b, s, n)).toString();
+        } catch (CharacterCodingException ex) {
+            return new String(b, s, n, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    // The text of b[s, s + n) in the charset cs, decoded as field() does
+    static String decode(byte[] b, int s, int n, Charset cs) {
+        return new CsvTokenizer(cs).decode(b, s, n);
+    }
+
+    // Whether b[s, e) is well-formed UTF-8 (no overlong forms, surrogates or code points
+    // beyond U+10FFFF)
+    static boolean isUtf8(byte[] b, int s, int e) {
+        int i = s;
+        while (i < e) {
+            int c = b[i] & 0xFF;
+            if (c < 0x80) {
+                i++;
+                continue;
+            }
+            int n;
+            int lo = 0x80, hi = 0xBF;       // range of the second byte
+            if (c >= 0xC2 && c <= 0xDF) {
+                n = 1;
+            } else if (c >= 0xE0 && c <= 0xEF) {
+                n = 2;
+                if (c == 0xE0) {
+                    lo = 0xA0;
+                } else if (c == 0xED) {
+                    hi = 0x9F;
+                }
+            } else if (c >= 0xF0 && c <= 0xF4) {
+                n = 3;
+                if (c == 0xF0) {
+                    lo = 0x90;
+                } else if (c == 0xF4) {
+                    hi = 0x8F;
+                }
+            } else {
+                return false;
+            }
+            if (i + n >= e) {
+                return false;
+            }
+            int c2 = b[i + 1] & 0xFF;
+            if (c2 < lo || c2 > hi) {
+                return false;
+            }
+            for (int j = 2; j <= n; j++) {
+                if ((b[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += n + 1;
+        }
+        return true;
+    }
+
+    // Where the record that starts at recordStart ends: the offset of the line break that ends it
+    // in b[from, end), or -1 if there is none yet; state[0] carries the scan state from one call
+    // to the next (UNQUOTED at the start of a record), state[1] collects the bytes seen (for
+    // the ASCII check of the caller).
+    static int recordEnd(ByteBuffer w, byte[] b, int recordStart, int from, int end, long[] state) {
+        int st = (int) state[0];
+        long high = state[1];
+        int i = from;
+        while (i < end) {
+            if (st == UNQUOTED) {
+                // Only a line break, or a quote at the start of a field, matters here
+                while (i + 8 <= end) {
+                    long word = w.getLong(i);
+                    if ((matches(word, NEWLINES) | matches(word, QUOTES)) != 0) {
+                        break;
+                    }
+                    high |= word;
+                    i += 8;
+                }
+                for (; i < end; i++) {
+                    byte c = b[i];
+                    if (c == '\n') {
+                        state[0] = UNQUOTED;
+                        state[1] = high;
+                        return i;
+                    }
+                    high |= c;
+                    if (c == '"' && (i == recordStart || b[i - 1] == ',')) {
+                        st = QUOTED;
+                        i++;
+                        break;
+                    }
+                }
+            } else if (st == QUOTED) {
+                // Only the next quote matters
+                while (i + 8 <= end) {
+                    long word = w.getLong(i);
+                    if (matches(word, QUOTES) != 0) {
+                        break;
+                    }
+                    high |= word;
+                    i += 8;
+                }
+                for (; i < end; i++) {
+                    high |= b[i];
+                    if (b[i] == '"') {
+                        st = QUOTE_IN_QUOTED;
+                        i++;
+                        break;
+                    }
+                }
+            } else {
+                // A doubled quote stays in the field, anything else closes it
+                if (b[i] == '"') {
+                    st = QUOTED;
+                    i++;
+                } else {
+                    st = UNQUOTED;
+                }
+            }
+        }
+        state[0] = st;
+        state[1] = high;
+        return -1;
+    }
+
+    // The fields of a line, e.g. a header or a list typed by the user
+    static String[] split(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        CsvTokenizer t = new CsvTokenizer();
+        int n = t.split(b, 0, b.length, Integer.MAX_VALUE);
+        String[] fields = new String[n];
+        for (int i = 0; i < n; i++) {
+            fields[i] = t.field(i);
+        }
+        return fields;
+    }
+
+    // A field as it has to be written in a csv line: in double quotes, with its double quotes
+    // doubled, if it has a comma, a double quote or a line break in it
+    static String quote(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return "\"" + field.replace("\"", "\"\"") + "\"";
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,826 @@
+/*
+ * =============================================================================================
+ * Name: DiffEngine.java
+ * Desc: The comparison logic of CompareFiles, without any Swing code in it. The engine is
+ *       driven by the Swing UI (CompareFiles) on a background thread and by the headless
+ *       command line front end (CompareFilesCli).
+ *       Every comparison result is handed to a DiffSink as soon as it is known: the values of
+ *       the key columns, the line numbers in both files and the header positions of the
+ *       mismatched columns. By default
+ *       the results are collected in a ResultStore; front ends that want to stream the results
+ *       elsewhere set a sink of their own (see TextDiffSink, CsvDiffSink, JsonLinesDiffSink).
+ *       A comparison can be stopped from another thread with cancel(): run() then ends with a
+ *       CancellationException as soon as the next block of a file is read.
+ *       Both files are read in one charset, UTF-8 unless setCharset() says otherwise.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+public class DiffEngine {
+    static final int TYPE_SAMPLE_ROWS = 1000;
+
+    Hashtable<String, Boolean> keyHash, excludeHash;
+    RowStore dataStore;
+    int[] keyCols, cmpCols;
+    ColumnType[] cmpTypes;
+    String file1, file2;
+    double tolerance;
+    int parallelism = 1;
+    int parsers;                      // parser threads of the pipelined load and compare; 0 for none
+    String algorithm = "hash";
+    long memoryBudget = 256L << 20;
+    File tempDir;                     // null means java.io.tmpdir
+    File indexFile;                   // sidecar of the store of File 1 (see BaselineIndex), or null
+    LineIndex lineIndex1, lineIndex2; // line offsets of the files, where a pass over them made them
+    boolean keepKeyIndex;             // keep the keys of dataStore after the comparison, for keyLines()
+    Charset charset = StandardCharsets.UTF_8;
+    ArrayList<HeaderCol> header;
+    ResultStore results = new ResultStore(this);
+    DiffSink sink = results;
+    DiffMetrics metrics = new DiffMetrics();
+    private volatile boolean cancelled;
+
+    // Counts the blocks read from the files for the progress of the phase, and stops the
+    // comparison there once it is cancelled
+    private final LineReader.Listener readProgress = new LineReader.Listener() {
+        public void blockRead(int bytes) {
+            checkCancelled();
+            metrics.countBytesConsumed(bytes);
+        }
+    };
+
+    // The same for the blocks that are read twice: rows of File 1 read back from it (see
+    // storedValues) and passes that only look for line boundaries (see scanLines). They do
+    // not count for the progress.
+    private final LineReader.Listener rereads = new LineReader.Listener() {
+        public void blockRead(int bytes) {
+            checkCancelled();
+            metrics.countBytesReread(bytes);
+        }
+    };
+
+    // Validate input and set up the key and exclude hashes
+    DiffEngine (String strFile1, String strFile2, String strKeys, String strTolerance, String strExclude) throws Exception {
+        strFile1 = strFile1 == null ? "" : strFile1.trim();
+        strFile2 = strFile2 == null ? "" : strFile2.trim();
+        strKeys = strKeys == null ? "" : strKeys.trim();
+        strTolerance = strTolerance == null ? "" : strTolerance.trim();
+        strExclude = strExclude == null ? "" : strExclude.trim();
+
+        if (strFile1.compareTo("") == 0) {
+            throw new Exception("File1 field is either blank or invalid.");
+        } else if (strFile2.compareTo("") == 0) {
+            throw new Exception("File2 field is either blank or invalid.");
+        } else if (strFile1.equalsIgnoreCase(strFile2)) {
+            throw new Exception("File1 and File2 must be different.");
+        } else if (strKeys.compareTo("") == 0) {
+            throw new Exception("Keys field is either blank or invalid.");
+        }
+
+        if (strTolerance.compareTo("") == 0) {
+            tolerance = 0.01;             // default value
+        } else if (! isNumber(strTolerance)) {
+            throw new Exception("Tolerance field is not numeric.");
+        } else {
+            tolerance = Double.parseDouble (strTolerance);
+        }
+
+        keyHash = new Hashtable<String, Boolean>();
+        populateHash (strKeys, keyHash, "key");
+
+        excludeHash = new Hashtable<String, Boolean>();
+        if (strExclude.compareTo("") != 0) {
+            populateHash (strExclude, excludeHash, "exclude column");
+
+            // Balk if key and exclude columns overlap
+            Enumeration<String> excludeCols = excludeHash.keys();
+            String excludeKey;
+            while (excludeCols.hasMoreElements()) {
+                excludeKey = excludeCols.nextElement();
+                if (keyHash.containsKey(excludeKey)) {
+                    throw new Exception("Key and exclude columns overlap.");
+                }
+            }
+        }
+
+        file1 = strFile1;
+        File f1 = new File(file1);
+        if (! f1.isFile() || ! f1.canRead()) {
+            throw new Exception("Either File1 does not exist or it cannot be read.");
+        }
+
+        file2 = strFile2;
+        File f2 = new File(file2);
+        if (! f2.isFile() || ! f2.canRead()) {
+            throw new Exception("Either File2 does not exist or it cannot be read.");
+        }
+    }
+
+    // Read and compare the headers, load File1 and compare File2 against it; every phase is
+    // timed and counted in metrics (see DiffMetrics). A comparison that fails or is cancelled
+    // lets go of the store of File 1 at once.
+    public void run() throws Exception {
+        boolean failed = true;
+        metrics.start(file1, file2, algorithm);
+        try {
+            metrics.startPhase(DiffMetrics.HEADER, file1, 0);
+            readHeader(file1);
+            compareHeaders(file2);
+            metrics.endPhase();
+            sink.start(this);
+            if (algorithm.equals("sort")) {
+                // Out-of-core: sort both files by key on disk and merge-join them
+                metrics.startPhase(DiffMetrics.COMPARE, file1 + "," + file2, bothFilesLength());
+                prepareColumns(file1);
+                new SortMergeCompare(this, memoryBudget, tempDir).run();
+                metrics.endPhase();
+            } else if (algorithm.equals("partition")) {
+                // Out-of-core: split both files into buckets by key on disk and compare bucket pairs
+                metrics.startPhase(DiffMetrics.COMPARE, file1 + "," + file2, bothFilesLength());
+                prepareColumns(file1);
+                new PartitionedCompare(this, memoryBudget, tempDir, parallelism).run();
+                metrics.endPhase();
+            } else if (algorithm.equals("merge") && compareSorted()) {
+                // Both files are sorted by key: they were merge-joined in one streaming pass
+            } else {
+                // Also "merge" for files that are not sorted by key
+                metrics.startPhase(DiffMetrics.LOAD, file1, new File(file1).length());
+                if (! loadIndexFile()) {
+                    loadData(file1);
+                    saveIndexFile();
+                }
+                metrics.setIndexSize(dataStore.size(), dataStore.memoryBytes());
+                metrics.endPhase();
+                metrics.startPhase(DiffMetrics.COMPARE, file2, new File(file2).length());
+                if (parallelism > 1) {
+                    compareDataParallel(file2, parallelism);
+                } else {
+                    compareData(file2);
+                }
+                metrics.endPhase();
+            }
+            sink.finish();
+            failed = false;
+        } finally {
+            metrics.finish(failed);
+            if (failed) {
+                releaseKeyIndex();
+            }
+        }
+    }
+
+    // Stop the comparison that run() is doing, from any thread
+    void cancel() { cancelled = true; }
+    boolean isCancelled() { return cancelled; }
+
+    // Throws a CancellationException once the comparison is cancelled; for the loops of the
+    // comparison that do not read a file as they go
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("The comparison was cancelled.");
+        }
+    }
+
+    // A reader of the lines of a file that the comparison reads through (its blocks count for
+    // the progress of the phase, and it stops when the comparison is cancelled)
+    LineReader openLines(String file) throws IOException {
+        return new LineReader(file, readProgress);
+    }
+
+    // The same for the lines that start in [start, end) (see LineReader)
+    LineReader openLines(String file, long start, long end) throws IOException {
+        return new LineReader(file, start, end, readProgress);
+    }
+
+    // A reader for a pass over a file that comes before the pass that compares its lines; it
+    // stops when the comparison is cancelled, but does not count for the progress
+    LineReader scanLines(String file) throws IOException {
+        return new LineReader(file, rereads);
+    }
+
+    // Number of threads used to compare File 2; 1 compares on the calling thread
+    void setParallelism(int threads) { parallelism = Math.max(1, threads); }
+
+    // Keep the store of File 1 in this sidecar file and reuse it while File 1, the keys and the
+    // exclude columns stay the same; null (the default) always loads File 1
+    void setIndexFile(File f) { indexFile = f; }
+
+    // Number of parser threads of loadData and compareData, which then read, parse and
+    // store or compare the lines in overlapping stages (see RecordPipeline); 0 does all of it
+    // on the calling thread
+    void setParsers(int threads) { parsers = Math.max(0, threads); }
+
+    // "hash" loads File1 into memory; "index" loads only the keys, fingerprints and offsets of
+    // File1 and reads a row back when it differs; "sort" sorts both files on disk and "partition"
+    // splits them into buckets on disk, both within memoryBudget; "merge" streams both files
+    // side by side if they are sorted by key, and is "hash" if they are not
+    void setAlgorithm(String strAlgorithm) throws Exception {
+        if (! strAlgorithm.equals("hash") && ! strAlgorithm.equals("index")
+                && ! strAlgorithm.equals("sort") && ! strAlgorithm.equals("partition")
+                && ! strAlgorithm.equals("merge")) {
+            throw new Exception("Unknown algorithm: " + strAlgorithm + ".");
+        }
+        algorithm = strAlgorithm;
+    }
+
+    // The charset of both files. It has to be ASCII compatible: the tokenizer finds commas,
+    // quotes and line breaks as single bytes.
+    void setCharset(Charset cs) throws Exception {
+        if (! Arrays.equals("\n,\"".getBytes(cs), new byte[]{'\n', ',', '"'})) {
+            throw new Exception("Unsupported charset: " + cs.name() + ".");
+        }
+        charset = cs;
+    }
+
+    // A tokenizer of lines of the files, for one thread
+    CsvTokenizer newTokenizer() {
+        return new CsvTokenizer(charset);
+    }
+
+    void setMemoryBudget(long bytes) { memoryBudget = bytes; }
+    void setKeepKeyIndex(boolean keep) { keepKeyIndex = keep; }
+
+    // Let go of the key index (see keyLines) and the line indexes of the last comparison
+    void releaseKeyIndex() {
+        dataStore = null;
+        lineIndex1 = null;
+        lineIndex2 = null;
+    }
+    void setSink(DiffSink diffSink) { sink = diffSink; }
+    void setTempDir(File dir) { tempDir = dir; }
+
+    // Called once for every comparison result, in the order of the results. key holds the key
+    // columns (see PackedKey.columns). leftLine or rightLine is -1 for a key found only in the
+    // other file; columns holds the header positions of the mismatched columns, or is null.
+    void report(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException {
+        if (columns != null) {
+            metrics.countMismatch();
+            sink.mismatch(key, leftLine, rightLine, columns);
+        } else if (rightLine == -1) {
+            metrics.countFile1Only();
+            sink.leftOnly(key, leftLine);
+        } else {
+            metrics.countFile2Only();
+            sink.rightOnly(key, rightLine);
+        }
+    }
+
+    // The text of a result; key is the text of the key columns (see PackedKey.text)
+    String formatResult(String key, int leftLine, int rightLine, BitSet columns) {
+        if (columns != null) {
+            return String.format ("KEY: %-30s => Mismatched columns = %s\n", "("+key+")", mismatchList(columns));
+        }
+        return String.format ("KEY: %-30s => Found only in %s\n", "("+key+")", leftLine == -1 ? file2 : file1);
+    }
+
+    // "name:position" of each mismatched column, separated by commas
+    String mismatchList(BitSet columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(header.get(i).getName()).append(':').append(i + 1);
+        }
+        return sb.toString();
+    }
+
+    ArrayList<HeaderCol> getHeader() { return header; }
+    ResultStore getResults() { return results; }
+    DiffMetrics getMetrics() { return metrics; }
+    String getFile1() { return file1; }
+    String getFile2() { return file2; }
+
+    // The line numbers of a key in File 1 and File 2 (0 where it is not in the file), looked up
+    // in the keys of File 1 that setKeepKeyIndex(true) keeps (see RowStore.keyIndex). Null when
+    // there are none (sort and partition algorithms, or after releaseKeyIndex). A key found only in File 2 is not in the store; it is
+    // one of the results instead. keys are the values of the key columns.
+    int[] keyLines(String[] keys) {
+        if (dataStore == null) {
+            return null;
+        }
+        PackedKey key = new PackedKey();
+        key.set(keys, keyCols.length, charset);
+        int row = dataStore.find(key);
+        if (row == -1) {
+            return new int[]{0, 0};
+        }
+        return new int[]{dataStore.lineNumber(row), dataStore.matchLine(row)};
+    }
+
+    // Positions of the key columns and of the columns that are compared, i.e. neither key nor
+    // exclude columns
+    void initCompareColumns() {
+        int nKeys = 0;
+        int n = 0;
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).getIsKey()) {
+                nKeys++;
+            } else if (! header.get(i).getIsExclude()) {
+                n++;
+            }
+        }
+        keyCols = new int[nKeys];
+        cmpCols = new int[n];
+        nKeys = 0;
+        n = 0;
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).getIsKey()) {
+                keyCols[nKeys++] = i;
+            } else if (! header.get(i).getIsExclude()) {
+                cmpCols[n++] = i;
+            }
+        }
+    }
+
+    // Whether a line of File 2 that is identical to its row of File 1 can be taken as matched
+    // without comparing its values. Not so with a tolerance of 0 or less, which makes even
+    // equal numbers unequal.
+    boolean canSkipIdentical() {
+        return tolerance > 0;
+    }
+
+    // Split the data line b[start, end) into its composite key (returned) and the values of the
+    // compared columns (copied into values). The key is made of the key columns joined by
+    // commas. Columns missing at the end of a short line are empty, columns beyond the header
+    // are ignored. t is the tokenizer of the calling thread.
+    String tokenize (CsvTokenizer t, byte[] b, int start, int end, String[] values) {
+        metrics.countRowParsed();
+        int n = t.split(b, start, end, header.size());
+        splitValues(t, n, values);
+        String key;
+        if (keyCols.length == 1) {
+            key = keyCols[0] < n ? t.field(keyCols[0]) : "";
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < keyCols.length && keyCols[i] < n; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(t.field(keyCols[i]));
+            }
+            key = sb.toString();
+        }
+        return key;
+    }
+
+    // The current line of reader, tokenized as above
+    String tokenize (CsvTokenizer t, LineReader reader, String[] values) {
+        return tokenize(t, reader.buffer(), reader.lineStart(), reader.lineEnd(), values);
+    }
+
+    // As above, with the key packed into key for RowStore instead of made into a String
+    void tokenize (CsvTokenizer t, byte[] b, int start, int end, PackedKey key, String[] values) {
+        metrics.countRowParsed();
+        int n = t.split(b, start, end, header.size());
+        key.set(t, b, n, keyCols);
+        splitValues(t, n, values);
+    }
+
+    void tokenize (CsvTokenizer t, LineReader reader, PackedKey key, String[] values) {
+        tokenize(t, reader.buffer(), reader.lineStart(), reader.lineEnd(), key, values);
+    }
+
+    // The values of the compared columns of the n fields that t has just split
+    private void splitValues(CsvTokenizer t, int n, String[] values) {
+        for (int i = 0; i < cmpCols.length; i++) {
+            values[i] = cmpCols[i] < n ? t.field(cmpCols[i]) : "";
+        }
+    }
+
+    // Find the compared columns and infer their types from the first data lines of strFile
+    void prepareColumns(String strFile) throws Exception {
+        initCompareColumns();
+        ColumnType[] columnTypes = CsvFileSession.get(strFile).columnTypes();
+        ColumnType[] types = new ColumnType[cmpCols.length];
+        for (int i = 0; i < cmpCols.length; i++) {
+            types[i] = columnTypes == null || cmpCols[i] >= columnTypes.length ? ColumnType.EMPTY : columnTypes[cmpCols[i]];
+            header.get(cmpCols[i]).setType(types[i]);
+        }
+        cmpTypes = types;
+    }
+
+    public void loadData (String strFile) throws Exception {
+        PackedKey key = new PackedKey();
+        boolean isFirstLine = true;
+        if (cmpCols == null) {
+            prepareColumns(strFile);
+        }
+        // In index mode only the keys, fingerprints and line offsets are kept
+        dataStore = new RowStore(cmpCols.length, ! algorithm.equals("index"));
+        dataStore.setKeyCharset(charset);
+        String[] values = new String[cmpCols.length];   // values of the compared columns only
+        CsvTokenizer tokenizer = newTokenizer();
+        int lineNumber = 0;
+        CsvFileSession session = CsvFileSession.get(strFile);
+        lineIndex1 = new LineIndex(strFile);
+
+        if (parsers > 0) {
+            loadDataPipelined(strFile);
+            session.setLineIndex(lineIndex1);
+            return;
+        }
+
+        LineReader reader = openLines(strFile);
+        try {
+            while (reader.nextLine()) {
+                lineNumber++;
+                lineIndex1.add(lineNumber, reader.lineOffset());
+                // Skip the header line
+                if (isFirstLine) {
+                    isFirstLine = false;
+                    continue;
+                }
+                tokenize(tokenizer, reader, key, values);
+                dataStore.add(key, values, lineNumber, reader.lineOffset());
+            }
+        } finally {
+            reader.close();
+        }
+        session.setLineIndex(lineIndex1);
+    }
+
+    public void compareData (String strFile) throws Exception {
+        PackedKey key = new PackedKey();
+        boolean isFirstLine = true;
+        String[] values = new String[cmpCols.length];
+        String[] storedValues = new String[cmpCols.length];
+        CsvTokenizer tokenizer = newTokenizer();
+        RowStore.Probe probe = dataStore.new Probe();
+        boolean skipIdentical = canSkipIdentical();
+        int lineNumber = 0;
+        CsvFileSession session = CsvFileSession.get(strFile);
+        lineIndex2 = new LineIndex(strFile);
+        if (parsers > 0) {
+            compareDataPipelined(strFile);
+            session.setLineIndex(lineIndex2);
+            return;
+        }
+
+        LineReader reader = openLines(strFile);
+        LineReader rows = openStoredRows(dataStore);
+        try {
+            while (reader.nextLine()) {
+                lineNumber++;
+                lineIndex2.add(lineNumber, reader.lineOffset());
+                // Skip the header line
+                if (isFirstLine) {
+                    isFirstLine = false;
+                    continue;
+                }
+                // A line identical to its row needs neither tokenizing nor comparing
+                if (skipIdentical) {
+                    int row = probe.findIdentical(reader.buffer(), reader.lineStart(), reader.lineEnd(),
+                                                  header.size(), keyCols, cmpCols);
+                    if (row != -1 && dataStore.markMatched(row, lineNumber)) {
+                        metrics.countMatch();
+                        continue;
+                    }
+                }
+                tokenize(tokenizer, reader, key, values);
+                // if the key does not exist in dataStore (or was matched already), then print message
+                // otherwise compare their values
+                int row = dataStore.find(key);
+                if (row != -1 && dataStore.markMatched(row, lineNumber)) {
+                    metrics.countMatch();
+                    storedValues(dataStore, probe, row, rows, tokenizer, storedValues);
+                    BitSet mismatches = findMismatches (values, storedValues, probe);
+                    if (mismatches != null) {
+                        report(dataStore.key(row), dataStore.lineNumber(row), lineNumber, mismatches);
+                    }
+                } else {
+                    report(row != -1 ? dataStore.key(row) : key.columns(charset), -1, lineNumber, null);
+                }
+            }
+        } finally {
+            reader.close();
+            if (rows != null) {
+                rows.close();
+            }
+        }
+        session.setLineIndex(lineIndex2);
+        reportUnmatched();
+    }
+
+    // Merge-join the files if both are sorted by key (see MergeJoinCompare); false if they are not
+    private boolean compareSorted() throws Exception {
+        metrics.startPhase(DiffMetrics.COMPARE, file1 + "," + file2, bothFilesLength());
+        if (cmpCols == null) {
+            prepareColumns(file1);
+        }
+        boolean merged = new MergeJoinCompare(this, tempDir).run();
+        metrics.endPhase();
+        return merged;
+    }
+
+    private long bothFilesLength() {
+        return new File(file1).length() + new File(file2).length();
+    }
+
+    // Take dataStore from the sidecar file, if there is one for this comparison
+    private boolean loadIndexFile() throws Exception {
+        if (indexFile == null) {
+            return false;
+        }
+        if (cmpCols == null) {
+            prepareColumns(file1);
+        }
+        dataStore = BaselineIndex.load(indexFile, BaselineIndex.signature(this));
+        if (dataStore == null) {
+            return false;
+        }
+        dataStore.setKeyCharset(charset);
+        return true;
+    }
+
+    private void saveIndexFile() throws IOException {
+        if (indexFile != null) {
+            BaselineIndex.save(indexFile, BaselineIndex.signature(this), dataStore);
+        }
+    }
+
+    // The unmatched rows in dataStore are the ones found only in the first file
+    private void reportUnmatched() throws IOException {
+        for (int row = 0; row < dataStore.size(); row++) {
+            if (! dataStore.isMatched(row)) {
+                report(dataStore.key(row), dataStore.lineNumber(row), -1, null);
+            }
+        }
+        dataStore = keepKeyIndex ? dataStore.keyIndex() : null;
+    }
+
+    // The rest of loadData with the lines tokenized on parser threads; they are added to
+    // dataStore in file order
+    private void loadDataPipelined (String strFile) throws Exception {
+        new RecordPipeline(strFile, parsers, lineIndex1, readProgress) {
+            RecordPipeline.Parser newParser() {
+                return new RecordPipeline.Parser() {
+                    private final CsvTokenizer tokenizer = newTokenizer();
+                    public void parse(RecordPipeline.Batch batch) {
+                        for (int i = 0; i < batch.count; i++) {
+                            if (batch.values[i] == null) {
+                                batch.values[i] = new String[cmpCols.length];
+                                batch.packedKeys[i] = new PackedKey();
+                            }
+                            tokenize(tokenizer, batch.data, batch.start[i], batch.end[i], batch.packedKeys[i], batch.values[i]);
+                        }
+                    }
+                    public void close() {
+                    }
+                };
+            }
+            void commit(RecordPipeline.Batch batch) {
+                for (int i = 0; i < batch.count; i++) {
+                    dataStore.add(batch.packedKeys[i], batch.values[i], batch.lineNumber[i], batch.offset[i]);
+                }
+            }
+        }.run();
+    }
+
+    // The rest of compareData with the lines tokenized, looked up and compared on parser
+    // threads, which only read dataStore. Matching and reporting are done in file order, so the
+    // results are those of compareData.
+    private void compareDataPipelined (String strFile) throws Exception {
+        final boolean skipIdentical = canSkipIdentical();
+        new RecordPipeline(strFile, parsers, lineIndex2, readProgress) {
+            RecordPipeline.Parser newParser() throws IOException {
+                final LineReader rows = openStoredRows(dataStore);
+                return new RecordPipeline.Parser() {
+                    private final CsvTokenizer tokenizer = newTokenizer();
+                    private final RowStore.Probe probe = dataStore.new Probe();
+                    private final PackedKey key = new PackedKey();
+                    private final String[] values = new String[cmpCols.length];
+                    private final String[] storedValues = new String[cmpCols.length];
+                    public void parse(RecordPipeline.Batch batch) throws IOException {
+                        for (int i = 0; i < batch.count; i++) {
+                            batch.mismatches[i] = null;
+                            batch.identical[i] = false;
+                            // A line identical to its row needs neither tokenizing nor comparing
+                            if (skipIdentical) {
+                                int row = probe.findIdentical(batch.data, batch.start[i], batch.end[i],
+                                                              header.size(), keyCols, cmpCols);
+                                if (row != -1) {
+                                    batch.rows[i] = row;
+                                    batch.identical[i] = true;
+                                    continue;
+                                }
+                            }
+                            tokenize(tokenizer, batch.data, batch.start[i], batch.end[i], key, values);
+                            int row = dataStore.find(key);
+                            // The key columns are only needed for a line whose key is not in File 1
+                            batch.keys[i] = row == -1 ? key.columns(charset) : null;
+                            batch.rows[i] = row;
+                            // Compared even if an earlier line takes the row; commit() sorts that out
+                            if (row != -1) {
+                                storedValues(dataStore, probe, row, rows, tokenizer, storedValues);
+                                batch.mismatches[i] = findMismatches(values, storedValues, probe);
+                            }
+                        }
+                    }
+                    public void close() throws IOException {
+                        if (rows != null) {
+                            rows.close();
+                        }
+                    }
+                };
+            }
+            void commit(RecordPipeline.Batch batch) throws IOException {
+                for (int i = 0; i < batch.count; i++) {
+                    int lineNumber = batch.lineNumber[i];
+                    int row = batch.rows[i];
+                    if (batch.identical[i]) {
+                        if (dataStore.markMatched(row, lineNumber)) {
+                            metrics.countMatch();
+                        } else {
+                            report(dataStore.key(row), -1, lineNumber, null);
+                        }
+                    } else if (row != -1 && dataStore.markMatched(row, lineNumber)) {
+                        metrics.countMatch();
+                        if (batch.mismatches[i] != null) {
+                            report(dataStore.key(row), dataStore.lineNumber(row), lineNumber, batch.mismatches[i]);
+                        }
+                    } else {
+                        report(row != -1 ? dataStore.key(row) : batch.keys[i], -1, lineNumber, null);
+                    }
+                }
+            }
+        }.run();
+        reportUnmatched();
+    }
+
+    // A reader of File 1 for storedValues, or null if the store holds the values itself
+    LineReader openStoredRows(RowStore store) throws IOException {
+        return store.hasValues() ? null : new LineReader(file1, LineReader.SEEK_BLOCK_SIZE, rereads);
+    }
+
+    // The compared values of a row of File 1: from the store through the probe of the calling
+    // thread, or read back from its line in File 1 with its tokenizer t
+    void storedValues(RowStore store, RowStore.Probe probe, int row, LineReader rows, CsvTokenizer t, String[] out) throws IOException {
+        if (rows == null) {
+            probe.values(row, out);
+            return;
+        }
+        rows.seek(store.offset(row));
+        if (! rows.nextLine()) {
+            throw new IOException("Line " + store.lineNumber(row) + " of " + file1 + " cannot be read back.");
+        }
+        tokenize(t, rows, out);
+    }
+
+    // Same results as compareData, with File 2 split into ranges that are compared on several threads
+    public void compareDataParallel (String strFile, int threads) throws Exception {
+        new ParallelCompare(this, strFile, dataStore, threads).run();
+        dataStore = keepKeyIndex ? dataStore.keyIndex() : null;
+    }
+
+    // arr1 and arr2 hold the values of the compared columns only (see cmpCols); each column is
+    // compared by the comparator of its inferred type. Returns the header positions of the
+    // columns that differ, or null if none do.
+    public BitSet findMismatches (String[] arr1, String[] arr2) {
+        return findMismatches(arr1, arr2, null);
+    }
+
+    // findMismatches for arr2 decoded from a row of File 1 by probe (see storedValues): a TEXT
+    // value of File 2 is looked up in the dictionary of its column and compared by its code
+    BitSet findMismatches (String[] arr1, String[] arr2, RowStore.Probe probe) {
+        metrics.countCellsCompared(arr1.length);
+        BitSet columns = null;
+        for (int i = 0; i < arr1.length; i++) {
+            int code = probe == null || cmpTypes[i] != ColumnType.TEXT ? -1 : probe.code(i);
+            boolean unequal = code == -1 ? cmpTypes[i].areUnequal(this, arr1[i], arr2[i])
+                    : ColumnType.areTextUnequal(this, arr1[i], arr2[i], probe.lookup(i, arr1[i]) == code);
+            if (unequal) {
+                if (columns == null) {
+                    columns = new BitSet(header.size());
+                }
+                columns.set(cmpCols[i]);
+            }
+        }
+        return columns;
+    }
+
+    public boolean areUnequal (String value1, String value2) {
+        // Equal strings are equal numbers too, unless a tolerance of 0 or less makes every pair of numbers unequal
+        if (tolerance > 0 && value1.equals(value2)) {
+            return false;
+        }
+        // One pass over each value classifies and parses it
+        double d1 = NumberScanner.parse(value1);
+        double d2 = NumberScanner.parse(value2);
+        boolean comparisonOutcome;
+        if (! Double.isNaN(d1) && ! Double.isNaN(d2)) {
+            comparisonOutcome = Math.abs(Math.abs(d1) - Math.abs(d2)) >= tolerance;
+        } else if ((! Double.isNaN(d1) || NumberScanner.isNaNLiteral(value1, 0, value1.length()))
+                   && (! Double.isNaN(d2) || NumberScanner.isNaNLiteral(value2, 0, value2.length()))) {
+            comparisonOutcome = false;     // a "NaN" number never differs by the tolerance
+        } else {
+            comparisonOutcome = !value1.equals(value2);
+        }
+        return comparisonOutcome;
+    }
+
+    public void readHeader (String strFile) throws Exception {
+        header = new ArrayList<HeaderCol>();
+        cmpCols = null;
+        CsvFileSession session = CsvFileSession.get(strFile);
+        if (session.headerLine() == null) {
+            throw new Exception("No lines in file: " + strFile);
+        }
+
+        // Balk if any column name is null or consists of blank spaces
+        String[] names = session.columnNames();
+        if (names == null) {
+            throw new Exception("Null columns in header of : " + strFile);
+        }
+        for (String name : names) {
+            HeaderCol hc = new HeaderCol(name, false, false);
+            if (keyHash.containsKey(name)) {
+                hc.setIsKey(true);
+                keyHash.put(name, true);
+            } else if (excludeHash.containsKey(name)) {
+                hc.setIsExclude(true);
+                excludeHash.put(name, true);
+            }
+            header.add(hc);
+        }
+
+        // Balk if any key or exclude columns were not found in the header
+        Enumeration<String> keyCols = keyHash.keys();
+        String key;
+        while (keyCols.hasMoreElements()) {
+            key = keyCols.nextElement();
+            if (keyHash.get(key) == false) {
+                throw new Exception("Key column " + key + " not found in header.");
+            }
+        }
+
+        Enumeration<String> excludeCols = excludeHash.keys();
+        String excludeKey;
+        while (excludeCols.hasMoreElements()) {
+            excludeKey = excludeCols.nextElement();
+            if (excludeHash.get(excludeKey) == false) {
+                throw new Exception("Exclude column " + excludeKey + " not found in header.");
+            }
+        }
+
+    }
+
+    public void compareHeaders (String strFile) throws Exception {
+        CsvFileSession session = CsvFileSession.get(strFile);
+        if (session.headerLine() == null) {
+            throw new Exception("No lines in file: " + strFile);
+        }
+
+        String[] names = session.columnNames();
+        if (names == null) {
+            throw new Exception("Null columns in header of : " + strFile);
+        }
+        // File2 must have the same columns as File1, in the same order
+        if (names.length != header.size()) {
+            throw new Exception("Headers of the two files do not match.");
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (header.get(i).getName().compareTo(names[i]) != 0) {
+                throw new Exception("Headers of the two files do not match.");
+            }
+        }
+    }
+
+    public boolean isNumber (String o) {
+        return NumberScanner.isNumber(o);
+    }
+
+    public void populateHash (String str, Hashtable<String, Boolean> hash, String strType) throws Exception {
+        // Populate the keys and exclude hashes
+        String[] names = splitList(str.trim());
+        if (names == null) {
+            throw new Exception("Null " + strType + " entered.");
+        }
+        for (String name : names) {
+            hash.put(name, false);
+        }
+    }
+
+    // The names in a comma separated list (a header line or a list typed by the user), which
+    // may be quoted as in the data lines; null if there is more than one and any of them is
+    // blank
+    static String[] splitList (String str) {
+        String[] names = CsvTokenizer.split(str);
+        if (names.length > 1) {
+            for (String name : names) {
+                if (name.trim().length() == 0) {
+                    return null;
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * =============================================================================================
+ * Name: DiffMetrics.java
+ * Desc: Where a comparison spends its time, and how much it did: a timer for each phase
+ *       (reading the headers, loading File 1, comparing File 2) and counters of the bytes read,
+ *       as the line readers of the comparison read them (see DiffEngine.openLines), the lines parsed, the size of the store of File 1, the results and the cells compared,
+ *       and the progress of the running phase: the bytes of its files read so far, against
+ *       their size (see getPhaseProgress; the Swing UI shows it while it compares).
+ *       The engine keeps one per run (see DiffEngine.getMetrics) and updates it as it goes;
+ *       the counters are LongAdders, so the threads of the parallel and pipelined comparisons
+ *       count without waiting for each other.
+ *       Neither JFR nor JMX may slow down a comparison of small files, which takes less time
+ *       than starting up either: the event classes are not even loaded (which starts up JFR)
+ *       unless Flight Recorder is running already, and the bean is only registered, on a
+ *       thread of its own, when JMX is wanted (see setJmx).
+ *       The figures come out three ways:
+ *         - live, through JMX (see DiffMetricsMXBean); the running or last comparison of the
+ *           JVM is registered as CompareFiles:type=DiffMetrics when the JVM runs the JMX agent
+ *           (-Dcom.sun.management.jmxremote...) or the front end asks for it (the UI does)
+ *         - as JDK Flight Recorder events, one comparefiles.Phase per phase and one
+ *           comparefiles.Run per comparison, when a recording is on (-XX:StartFlightRecording)
+ *           at the start of the comparison
+ *         - as the summary line of summary(), which the command line front end prints at the
+ *           end of a run and the Swing UI shows as the tooltip of its progress bar
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+class DiffMetrics implements DiffMetricsMXBean {
+    static final String OBJECT_NAME = "CompareFiles:type=DiffMetrics";
+
+    static final String HEADER = "header";
+    static final String LOAD = "load";
+    static final String COMPARE = "compare";
+
+    @Name("comparefiles.Phase")
+    @Label("Diff Phase")
+    @Category("Compare Files")
+    @Description("One phase of a comparison: reading the headers, loading File 1 or comparing File 2")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("File")
+        String file;
+
+        @Label("Rows Parsed")
+        long rowsParsed;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+    }
+
+    @Name("comparefiles.Run")
+    @Label("Diff Run")
+    @Category("Compare Files")
+    @Description("A whole comparison of two files")
+    static class RunEvent extends Event {
+        @Label("File 1")
+        String file1;
+
+        @Label("File 2")
+        String file2;
+
+        @Label("Algorithm")
+        String algorithm;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Rows Parsed")
+        long rowsParsed;
+
+        @Label("Index Rows")
+        long indexRows;
+
+        @Label("Index Size")
+        @DataAmount
+        long indexBytes;
+
+        @Label("Matched")
+        long matched;
+
+        @Label("Mismatched")
+        long mismatched;
+
+        @Label("Only in File 1")
+        long file1Only;
+
+        @Label("Only in File 2")
+        long file2Only;
+
+        @Label("Cells Compared")
+        long cellsCompared;
+    }
+
+    private String file1 = "";
+    private String file2 = "";
+    private String algorithm = "";
+
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder cellsCompared = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+    private final LongAdder file1Only = new LongAdder();
+    private final LongAdder file2Only = new LongAdder();
+    private final LongAdder phaseBytesConsumed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile long indexRows;
+    private volatile long indexBytes;
+
+    // Phases are started and ended by the thread that runs the comparison
+    private volatile String phase = "";
+    private volatile long started;
+    private volatile long finished;
+    private volatile long phaseStarted;
+    private volatile long phaseSize;
+    private volatile long headerNanos, loadNanos, compareNanos;
+    private long phaseRowsParsed;
+    private long phaseBytesRead;
+    private String phaseFile;
+    private boolean recording;          // whether Flight Recorder was running at the start
+    private static volatile boolean jmx = jmxAgent();
+    private PhaseEvent phaseEvent;
+    private RunEvent runEvent;
+
+    // Start the timers of a comparison and make it the one JMX shows
+    void start(String file1, String file2, String algorithm) {
+        this.file1 = file1;
+        this.file2 = file2;
+        this.algorithm = algorithm;
+        started = System.nanoTime();
+        recording = FlightRecorder.isInitialized();
+        if (recording) {
+            runEvent = new RunEvent();
+            runEvent.begin();
+        }
+        if (jmx) {
+            register(this);
+        }
+    }
+
+    // Start a phase that reads size bytes of file (or files, separated by commas)
+    void startPhase(String name, String file, long size) {
+        phaseBytesConsumed.reset();
+        phaseSize = size;
+        phase = name;
+        phaseFile = file;
+        phaseRowsParsed = rowsParsed.sum();
+        phaseBytesRead = bytesRead.sum();
+        phaseStarted = System.nanoTime();
+        if (recording) {
+            phaseEvent = new PhaseEvent();
+            phaseEvent.begin();
+        }
+    }
+
+    // End the current phase
+    void endPhase() {
+        long nanos = System.nanoTime() - phaseStarted;
+        if (phase.equals(HEADER)) {
+            headerNanos += nanos;
+        } else if (phase.equals(LOAD)) {
+            loadNanos += nanos;
+        } else {
+            compareNanos += nanos;
+        }
+        if (recording) {
+            phaseEvent.end();
+            if (phaseEvent.shouldCommit()) {
+                phaseEvent.phase = phase;
+                phaseEvent.file = phaseFile;
+                phaseEvent.rowsParsed = rowsParsed.sum() - phaseRowsParsed;
+                phaseEvent.bytesRead = bytesRead.sum() - phaseBytesRead;
+                phaseEvent.commit();
+            }
+        }
+        phaseFile = null;
+    }
+
+    void setIndexSize(long rows, long bytes) {
+        indexRows = rows;
+        indexBytes = bytes;
+    }
+
+    // Stop the timers; failed if the comparison ended with an exception
+    void finish(boolean failed) {
+        if (phaseFile != null) {
+            endPhase();
+        }
+        finished = System.nanoTime();
+        phase = failed ? "failed" : "done";
+        if (recording) {
+            runEvent.end();
+        }
+        if (recording && runEvent.shouldCommit()) {
+            runEvent.file1 = file1;
+            runEvent.file2 = file2;
+            runEvent.algorithm = algorithm;
+            runEvent.bytesRead = bytesRead.sum();
+            runEvent.rowsParsed = rowsParsed.sum();
+            runEvent.indexRows = indexRows;
+            runEvent.indexBytes = indexBytes;
+            runEvent.matched = matched.sum();
+            runEvent.mismatched = mismatched.sum();
+            runEvent.file1Only = file1Only.sum();
+            runEvent.file2Only = file2Only.sum();
+            runEvent.cellsCompared = cellsCompared.sum();
+            runEvent.commit();
+        }
+    }
+
+    // A block of the files of the phase read, which counts for its progress
+    void countBytesConsumed(int bytes) {
+        phaseBytesConsumed.add(bytes);
+        bytesRead.add(bytes);
+    }
+
+    // A block read again, e.g. to read back a row of File 1, which does not
+    void countBytesReread(int bytes) { bytesRead.add(bytes); }
+
+    void countRowParsed() { rowsParsed.increment(); }
+    void countCellsCompared(int cells) { cellsCompared.add(cells); }
+    void countMatch() { matched.increment(); }
+    void countMismatch() { mismatched.increment(); }
+    void countFile1Only() { file1Only.increment(); }
+    void countFile2Only() { file2Only.increment(); }
+
+    // Register the comparisons of this JVM with JMX from now on, or not
+    static void setJmx(boolean on) {
+        jmx = on;
+    }
+
+    // Whether the JVM was started with the JMX agent, which creates the MBean server anyway
+    private static boolean jmxAgent() {
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith("com.sun.management.jmxremote")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Make metrics the comparison that JMX shows, in place of the one before, on a thread of its
+    // own. Monitoring is not worth failing a comparison for, so a JMX error only leaves the
+    // bean unregistered.
+    private static void register(final DiffMetrics metrics) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    ObjectName name = new ObjectName(OBJECT_NAME);
+                    synchronized (DiffMetrics.class) {
+                        if (server.isRegistered(name)) {
+                            server.unregisterMBean(name);
+                        }
+                        server.registerMBean(metrics, name);
+                    }
+                } catch (JMException ex) {
+                    // Not registered
+                }
+            }
+        }, "csvdiff-jmx");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public String getFile1() { return file1; }
+    public String getFile2() { return file2; }
+    public String getAlgorithm() { return algorithm; }
+    public String getPhase() { return phase; }
+
+    public long getElapsedMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        return ((finished != 0 ? finished : System.nanoTime()) - started) / 1000000;
+    }
+
+    public long getHeaderMillis() { return phaseMillis(HEADER, headerNanos); }
+    public long getLoadMillis() { return phaseMillis(LOAD, loadNanos); }
+    public long getCompareMillis() { return phaseMillis(COMPARE, compareNanos); }
+
+    // The time of a phase, counting up to now while it runs
+    private long phaseMillis(String name, long nanos) {
+        if (phase.equals(name)) {
+            nanos += System.nanoTime() - phaseStarted;
+        }
+        return nanos / 1000000;
+    }
+
+    // Reading a file is only part of the work of some phases, and some read parts of their
+    // files more than once, so the progress stops at 99 until the phase ends
+    public int getPhaseProgress() {
+        long size = phaseSize;
+        if (size <= 0) {
+            return 0;
+        }
+        return (int) Math.min(99, phaseBytesConsumed.sum() * 100 / size);
+    }
+
+    // Results so far: mismatches and keys found in only one of the files
+    public long getDifferences() {
+        return mismatched.sum() + file1Only.sum() + file2Only.sum();
+    }
+
+    public long getBytesRead() { return bytesRead.sum(); }
+    public long getRowsParsed() { return rowsParsed.sum(); }
+    public long getIndexRows() { return indexRows; }
+    public long getIndexBytes() { return indexBytes; }
+    public long getMatched() { return matched.sum(); }
+    public long getMismatched() { return mismatched.sum(); }
+    public long getFile1Only() { return file1Only.sum(); }
+    public long getFile2Only() { return file2Only.sum(); }
+    public long getCellsCompared() { return cellsCompared.sum(); }
+
+    public long getRowsPerSecond() {
+        long ms = getElapsedMillis();
+        return ms == 0 ? 0 : (matched.sum() + file2Only.sum()) * 1000 / ms;
+    }
+
+    public long getBytesPerSecond() {
+        long ms = getElapsedMillis();
+        return ms == 0 ? 0 : bytesRead.sum() * 1000 / ms;
+    }
+
+    // One line with all of the above, for the end of a run. Built by hand, as formatting the
+    // decimals with String.format loads the locale data, which takes longer than small runs.
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Compared ").append(file1).append(" and ").append(file2);
+        sb.append(" (").append(algorithm).append(") in ");
+        appendDecimal(sb, getElapsedMillis(), 1000).append(" s: header ");
+        appendDecimal(sb, getHeaderMillis(), 1000).append(" s, load ");
+        appendDecimal(sb, getLoadMillis(), 1000).append(" s, compare ");
+        appendDecimal(sb, getCompareMillis(), 1000).append(" s; ");
+        sb.append(bytesRead.sum()).append(" bytes read, ");
+        sb.append(rowsParsed.sum()).append(" rows parsed, ");
+        sb.append(indexRows).append(" rows in File 1 index (").append(indexBytes).append(" bytes); ");
+        sb.append(matched.sum()).append(" matched, ");
+        sb.append(mismatched.sum()).append(" mismatched, ");
+        sb.append(file1Only.sum()).append(" only in File 1, ");
+        sb.append(file2Only.sum()).append(" only in File 2; ");
+        sb.append(cellsCompared.sum()).append(" cells compared; ");
+        sb.append(getRowsPerSecond()).append(" rows/s, ");
+        appendDecimal(sb, getBytesPerSecond() * 10 >> 20, 10).append(" MB/s");
+        return sb.toString();
+    }
+
+    // Append value / scale with as many decimals as scale has zeros (scale 1000: 1234 => 1.234)
+    private static StringBuilder appendDecimal(StringBuilder sb, long value, int scale) {
+        sb.append(value / scale).append('.');
+        String decimals = Long.toString(scale + value % scale);
+        return sb.append(decimals, 1, decimals.length());
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * =============================================================================================
+ * Name: DiffMetricsMXBean.java
+ * Desc: The JMX view of DiffMetrics: the phase timers and counters of the comparison that is
+ *       running, or of the last one, under the object name CompareFiles:type=DiffMetrics.
+ *       Times are in milliseconds; a phase that is still running counts up to now.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+public interface DiffMetricsMXBean {
+    String getFile1();
+    String getFile2();
+    String getAlgorithm();
+
+    // "header", "load" or "compare" while running, "done" or "failed" after
+    String getPhase();
+
+    long getElapsedMillis();
+    long getHeaderMillis();
+    long getLoadMillis();
+    long getCompareMillis();
+
+    // Percent of the bytes of its files that the running phase has read
+    int getPhaseProgress();
+
+    long getBytesRead();
+    long getRowsParsed();
+    long getIndexRows();
+    long getIndexBytes();
+
+    long getMatched();
+    long getMismatched();
+    long getFile1Only();
+    long getFile2Only();
+    long getCellsCompared();
+    long getDifferences();
+
+    // Lines of File 2 compared (matched or found only in File 2) per second of the run so far
+    long getRowsPerSecond();
+    long getBytesPerSecond();
+}
@@ -0,0 +1,33 @@
+/*
+ * =============================================================================================
+ * Name: DiffSink.java
+ * Desc: Receives the results of a DiffEngine run as they are found, in the order of the
+ *       results. start() is called once the headers have been read and before the first
+ *       result, finish() after the last one. Line numbers count the header as line 1, and
+ *       columns holds the header positions (0 based) of the mismatched columns. A key is the
+ *       values of its key columns, in header order (see PackedKey.columns); a sink that shows
+ *       it as one text joins them with PackedKey.text.
+ *       Implementations: ResultStore (keeps the results, for the Swing UI), TextDiffSink,
+ *       CsvDiffSink and JsonLinesDiffSink (write each result as it comes, in constant memory).
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.util.BitSet;
+
+interface DiffSink {
+    void start(DiffEngine engine) throws IOException;
+
+    // The key is in both files and the values of some compared columns differ
+    void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException;
+
+    // The key is found only in File 1
+    void leftOnly(String[] key, int leftLine) throws IOException;
+
+    // The key is found only in File 2 (or File 2 has it more than once)
+    void rightOnly(String[] key, int rightLine) throws IOException;
+
+    void finish() throws IOException;
+}
@@ -0,0 +1,263 @@
+/*
+ * =============================================================================================
+ * Name: ExternalSorter.java
+ * Desc: Sorts more records than fit in memory. Records are collected until their estimated
+ *       size reaches the memory budget, then sorted and written to a temporary run file.
+ *       sort() merges the runs (k-way, through a priority queue) and hands the records back in
+ *       order through a Reader. When nothing had to be spilled the records never touch disk.
+ *       More than MAX_FAN_IN runs are first merged into bigger runs, so that only a bounded
+ *       number of files are open at any time. Run files are deleted when the Reader is closed,
+ *       or by discard() when the records are not wanted any more (a failed comparison).
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+class ExternalSorter<T> {
+    static final int MAX_FAN_IN = 128;
+    static final int IO_BUFFER_SIZE = 1 << 16;
+
+    // Writes and reads one record of a run file
+    interface Codec<T> {
+        void write(DataOutputStream out, T record) throws IOException;
+        T read(DataInputStream in) throws IOException;     // null at end of run
+        long estimateSize(T record);                        // approximate heap used by the record
+    }
+
+    // Records in sorted order; close() releases the run files
+    interface Reader<T> {
+        T next() throws IOException;                        // null at end
+        void close() throws IOException;
+    }
+
+    private final Comparator<T> comparator;
+    private final Codec<T> codec;
+    private final long memoryBudget;
+    private final File tempDir;
+    private ArrayList<T> buffer = new ArrayList<T>();
+    private long bufferSize;
+    private ArrayList<File> runs = new ArrayList<File>();
+    private long recordCount;
+    private boolean discarded;
+
+    ExternalSorter (Comparator<T> comparator, Codec<T> codec, long memoryBudget, File tempDir) {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    void add(T record) throws IOException {
+        if (discarded) {
+            return;
+        }
+        buffer.add(record);
+        bufferSize += codec.estimateSize(record) + 8;
+        recordCount++;
+        if (bufferSize >= memoryBudget) {
+            spill();
+        }
+    }
+
+    // Delete the run files and drop the records; later records are ignored
+    void discard() {
+        discarded = true;
+        for (File run : runs) {
+            run.delete();
+        }
+        runs = new ArrayList<File>();
+        buffer = null;
+    }
+
+    long size() { return recordCount; }
+    int runCount() { return runs.size(); }
+
+    // Sort the buffer and write it to a new run file
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer, comparator);
+        File run = File.createTempFile("csvdiff", ".run", tempDir);
+        run.deleteOnExit();
+        runs.add(run);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+        try {
+            for (T record : buffer) {
+                codec.write(out, record);
+            }
+        } finally {
+            out.close();
+        }
+        buffer = new ArrayList<T>();
+        bufferSize = 0;
+    }
+
+    // Finish adding records and read them back in sorted order
+    Reader<T> sort() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            final ArrayList<T> sorted = buffer;
+            buffer = null;
+            return new Reader<T>() {
+                private int next;
+                public T next() {
+                    if (next >= sorted.size()) {
+                        return null;
+                    }
+                    T record = sorted.get(next);
+                    sorted.set(next++, null);
+                    return record;
+                }
+                public void close() {
+                    sorted.clear();
+                }
+            };
+        }
+        spill();
+        buffer = null;
+        // Merge groups of runs until few enough are left for a single merge
+        while (runs.size() > MAX_FAN_IN) {
+            ArrayList<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                Reader<T> reader = merge(new ArrayList<File>(runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()))));
+                File run = File.createTempFile("csvdiff", ".run", tempDir);
+                run.deleteOnExit();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+                try {
+                    T record;
+                    while ((record = reader.next()) != null) {
+                        codec.write(out, record);
+                    }
+                } finally {
+                    out.close();
+                    reader.close();
+                }
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        Reader<T> reader = merge(runs);
+        runs = new ArrayList<File>();
+        return reader;
+    }
+
+    // One open run file and its current record
+    private class Run {
+        final File file;
+        final DataInputStream in;
+        T current;
+        Run (File file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+        }
+        boolean advance() throws IOException {
+            current = codec.read(in);
+            return current != null;
+        }
+        void close() throws IOException {
+            in.close();
+            file.delete();
+        }
+    }
+
+    private Reader<T> merge(final ArrayList<File> files) throws IOException {
+        final PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, files.size()), new Comparator<Run>() {
+            public int compare(Run a, Run b) {
+                return comparator.compare(a.current, b.current);
+            }
+        });
+        final ArrayList<Run> open = new ArrayList<Run>();
+        for (File file : files) {
+            Run run = new Run(file);
+            open.add(run);
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+        return new Reader<T>() {
+            public T next() throws IOException {
+                Run run = queue.poll();
+                if (run == null) {
+                    return null;
+                }
+                T record = run.current;
+                if (run.advance()) {
+                    queue.add(run);
+                }
+                return record;
+            }
+            public void close() throws IOException {
+                for (Run run : open) {
+                    run.close();
+                }
+                queue.clear();
+            }
+        };
+    }
+
+    // String helpers for codecs: a length prefix followed by UTF-8 bytes
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // The same for an array of Strings: their number followed by each of them
+    static void writeStrings(DataOutputStream out, String[] s) throws IOException {
+        out.writeInt(s.length);
+        for (String t : s) {
+            writeString(out, t);
+        }
+    }
+
+    static String[] readStrings(DataInputStream in) throws IOException {
+        String[] s = new String[in.readInt()];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = readString(in);
+        }
+        return s;
+    }
+
+    // Read the first int of a record, or return -1 at the end of the run
+    static int readIntOrEnd(DataInputStream in) throws IOException {
+        try {
+            return in.readInt();
+        } catch (EOFException ex) {
+            return -1;
+        }
+    }
+
+    static long estimateSize(String s) {
+        return 40 + s.length();
+    }
+
+    static long estimateSize(String[] s) {
+        long size = 16 + 4L * s.length;
+        for (String t : s) {
+            size += estimateSize(t);
+        }
+        return size;
+    }
+}
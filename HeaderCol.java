@@ -0,0 +1,29 @@
+/*
+ * =============================================================================================
+ * Name: HeaderCol.java
+ * Desc: One column of the header line of a csv file. A header column has a name, and is
+ *       either a key column, an exclude column or a column that is compared. A compared
+ *       column also has a type, which selects the comparator used for its values.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+class HeaderCol {
+    private String name;
+    private boolean isKey;
+    private boolean isExclude;
+    private ColumnType type = ColumnType.TEXT;
+    HeaderCol (String n, boolean k, boolean ex) {
+        name = n;
+        isKey = k;
+        isExclude = ex;
+    }
+    void setIsKey(boolean k) { isKey = k; }
+    void setIsExclude(boolean ex) { isExclude = ex; }
+    String getName()  { return name; }
+    boolean getIsKey() { return isKey; }
+    boolean getIsExclude() { return isExclude; }
+    void setType(ColumnType t) { type = t; }
+    ColumnType getType() { return type; }
+}
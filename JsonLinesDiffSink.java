@@ -0,0 +1,107 @@
+/*
+ * =============================================================================================
+ * Name: JsonLinesDiffSink.java
+ * Desc: Writes the results as JSON Lines, one object per line:
+ *           {"result":"mismatch","key":["k1","k2"],"file1Line":2,"file2Line":3,
+ *            "columns":[{"name":"c","position":4}]}
+ *       result is mismatch, file1_only or file2_only. key holds the values of the key columns,
+ *       in header order (fewer of them when a line is too short to have them all, see
+ *       PackedKey.columns), even when there is only one. A line number is left out when the key
+ *       is not in that file, and columns is there for a mismatch only. Positions are 1 based,
+ *       as in the text output.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+class JsonLinesDiffSink implements DiffSink {
+    private final Writer out;
+    private final StringBuilder sb = new StringBuilder();
+    private DiffEngine engine;
+
+    JsonLinesDiffSink (Writer out) {
+        this.out = out;
+    }
+
+    public void start(DiffEngine engine) {
+        this.engine = engine;
+    }
+
+    public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException {
+        begin("mismatch", key, leftLine, rightLine);
+        sb.append(",\"columns\":[");
+        for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+            if (sb.charAt(sb.length() - 1) != '[') {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            appendString(engine.getHeader().get(i).getName());
+            sb.append(",\"position\":").append(i + 1).append('}');
+        }
+        sb.append(']');
+        end();
+    }
+
+    public void leftOnly(String[] key, int leftLine) throws IOException {
+        begin("file1_only", key, leftLine, -1);
+        end();
+    }
+
+    public void rightOnly(String[] key, int rightLine) throws IOException {
+        begin("file2_only", key, -1, rightLine);
+        end();
+    }
+
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    private void begin(String result, String[] key, int leftLine, int rightLine) {
+        sb.setLength(0);
+        sb.append("{\"result\":\"").append(result).append("\",\"key\":[");
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendString(key[i]);
+        }
+        sb.append(']');
+        if (leftLine != -1) {
+            sb.append(",\"file1Line\":").append(leftLine);
+        }
+        if (rightLine != -1) {
+            sb.append(",\"file2Line\":").append(rightLine);
+        }
+    }
+
+    private void end() throws IOException {
+        sb.append("}\n");
+        out.append(sb);
+    }
+
+    // A JSON string literal
+    private void appendString(String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
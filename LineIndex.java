@@ -0,0 +1,77 @@
+/*
+ * =============================================================================================
+ * Name: LineIndex.java
+ * Desc: A sparse index of the line offsets of a file, so that a line can be read by its number
+ *       without reading the file from the start. The byte offset of every STRIDE-th line is
+ *       kept in a long array (8 bytes per 64 lines); readLine() seeks to the nearest earlier
+ *       checkpoint and skips at most STRIDE - 1 lines from there.
+ *       DiffEngine fills the index while it reads a file anyway (add() is called for every
+ *       line, in order); build() makes one with a pass of its own over the file.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+class LineIndex {
+    static final int STRIDE = 64;
+
+    private final String file;
+    private long[] checkpoints = new long[1024];
+    private int count;                // number of checkpoints
+    private int lineCount;
+
+    LineIndex (String file) {
+        this.file = file;
+    }
+
+    // Index a whole file
+    static LineIndex build(String file) throws IOException {
+        LineIndex index = new LineIndex(file);
+        LineReader reader = new LineReader(file);
+        try {
+            while (reader.nextLine()) {
+                index.add(reader.lineNumber(), reader.lineOffset());
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    // Record the offset of a line; lines must be added in order, starting at line 1
+    void add(int lineNumber, long offset) {
+        if ((lineNumber - 1) % STRIDE == 0) {
+            if (count == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, count * 2);
+            }
+            checkpoints[count++] = offset;
+        }
+        lineCount = lineNumber;
+    }
+
+    String getFile() { return file; }
+    int lineCount() { return lineCount; }
+
+    // The line with this number (1 is the first line), or null if the file has fewer lines
+    String readLine(int lineNumber) throws IOException {
+        if (lineNumber < 1 || lineNumber > lineCount) {
+            return null;
+        }
+        int checkpoint = (lineNumber - 1) / STRIDE;
+        LineReader reader = new LineReader(file, LineReader.SEEK_BLOCK_SIZE);
+        try {
+            reader.seek(checkpoints[checkpoint]);
+            for (int n = checkpoint * STRIDE + 1; n < lineNumber; n++) {
+                if (! reader.nextLine()) {
+                    return null;
+                }
+            }
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * =============================================================================================
+ * Name: LineReader.java
+ * Desc: A line reader for csv files built on a FileChannel. The file is read in large blocks
+ *       into a byte array and split on '\n' (a trailing '\r' is dropped). A "line" is a csv
+ *       record: a line break inside a quoted field does not end it (see CsvTokenizer, whose
+ *       word-at-a-time scan finds the end of the record). Lines that are pure
+ *       ASCII are turned into Strings without going through a CharsetDecoder; other lines are
+ *       decoded as UTF-8 (or the charset passed in), bytes that are not valid in it as
+ *       ISO-8859-1 (see CsvTokenizer). A leading UTF-8 byte order mark is skipped.
+ *       The raw bytes of the current line stay available through buffer(), lineStart() and
+ *       lineEnd() until the next call to nextLine(), and lineOffset() gives the byte offset of
+ *       the current line in the file. A quote that opens a field but is not closed within
+ *       MAX_QUOTED_RECORD bytes, or before the end of the file, is taken as an ordinary
+ *       character: that record ends at its first line break, as every line did before quoted
+ *       fields were read, instead of taking the rest of the file with it.
+ *       A reader can also be limited to the lines that start in a byte range of the file, so
+ *       that several threads can share the work on one file.
+ *       For random access, open the reader with a small block size and seek() to the offset of
+ *       each line that is needed.
+ *       A Listener, if one is given, is told of every block read from the file (DiffEngine
+ *       counts them for the progress of a comparison, and stops a cancelled one there).
+ *       Always close() the reader, preferably in a finally block.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+class LineReader implements Closeable {
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int SEEK_BLOCK_SIZE = 1 << 14;
+    static final int MAX_QUOTED_RECORD = 1 << 20;   // bytes a record with a quoted field may span
+
+    // Told of every block read from the file, on the thread of the reader
+    interface Listener {
+        void blockRead(int bytes);
+    }
+
+    private final FileInputStream fis;
+    private final FileChannel channel;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private final Listener listener;    // or null
+    private byte[] buf;
+    private ByteBuffer bb;
+    private ByteBuffer words;   // little-endian view of buf for CsvTokenizer.recordEnd
+    private final long[] scanState = new long[2];
+    private int pos;            // start of the unread bytes in buf
+    private int limit;          // end of the valid bytes in buf
+    private long bufOffset;     // file offset of buf[0]
+    private long end = Long.MAX_VALUE;   // no line starting at or after this offset is returned
+    private boolean eof;
+
+    // The current line
+    private int lineStart, lineEnd;
+    private long lineOffset = -1;
+    private boolean lineIsAscii;
+    private int lineNumber;
+
+    LineReader (String file) throws IOException {
+        this(file, StandardCharsets.UTF_8);
+    }
+
+    LineReader (String file, Listener listener) throws IOException {
+        this(file, StandardCharsets.UTF_8, 0, BLOCK_SIZE, listener);
+    }
+
+    // Read only the lines that start in [start, end). start must be the start of a line.
+    LineReader (String file, long start, long end) throws IOException {
+        this(file, start, end, null);
+    }
+
+    LineReader (String file, long start, long end, Listener listener) throws IOException {
+        this(file, StandardCharsets.UTF_8, start, BLOCK_SIZE, listener);
+        this.end = end;
+    }
+
+    LineReader (String file, Charset cs) throws IOException {
+        this(file, cs, 0);
+    }
+
+    // A reader that reads blockSize bytes at a time, e.g. SEEK_BLOCK_SIZE for random access
+    LineReader (String file, int blockSize) throws IOException {
+        this(file, blockSize, null);
+    }
+
+    LineReader (String file, int blockSize, Listener listener) throws IOException {
+        this(file, StandardCharsets.UTF_8, 0, blockSize, listener);
+    }
+
+    private LineReader (String file, Charset cs, long start) throws IOException {
+        this(file, cs, start, BLOCK_SIZE, null);
+    }
+
+    private LineReader (String file, Charset cs, long start, int blockSize, Listener listener) throws IOException {
+        this.listener = listener;
+        fis = new FileInputStream(file);
+        channel = fis.getChannel();
+        channel.position(start);
+        bufOffset = start;
+        charset = cs;
+        asciiCompatible = cs.equals(StandardCharsets.UTF_8) || cs.equals(StandardCharsets.US_ASCII) || cs.equals(StandardCharsets.ISO_8859_1);
+        buf = new byte[blockSize];
+        bb = ByteBuffer.wrap(buf);
+        words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            fill();
+        } catch (RuntimeException ex) {
+            // The listener stopped the reader (a cancelled comparison)
+            close();
+            throw ex;
+        }
+        // Skip the UTF-8 byte order mark, if any
+        if (start == 0 && limit - pos >= 3 && buf[0] == (byte) 0xEF && buf[1] == (byte) 0xBB && buf[2] == (byte) 0xBF) {
+            pos = 3;
+        }
+    }
+
+    // Move the unread bytes to the front of the buffer (growing it if a single line fills it)
+    // and read the next block from the channel. Returns false at end of file.
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            bufOffset += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+            bb = ByteBuffer.wrap(buf);
+            words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        bb.limit(buf.length);
+        bb.position(limit);
+        int n = channel.read(bb);
+        while (n == 0) {
+            n = channel.read(bb);
+        }
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        if (listener != null) {
+            listener.blockRead(n);
+        }
+        return true;
+    }
+
+    // Go to the line that starts at offset; the next call to nextLine() returns it. Line
+    // numbers do not count across a seek.
+    void seek(long offset) throws IOException {
+        end = Long.MAX_VALUE;
+        if (offset >= bufOffset && offset < bufOffset + limit) {
+            pos = (int) (offset - bufOffset);
+            return;
+        }
+        channel.position(offset);
+        bufOffset = offset;
+        pos = 0;
+        limit = 0;
+        eof = false;
+        fill();
+    }
+
+    // Advance to the next line. Returns false at end of file.
+    boolean nextLine() throws IOException {
+        if (bufOffset + pos >= end) {
+            lineOffset = -1;
+            return false;
+        }
+        int scan = pos;
+        scanState[0] = CsvTokenizer.UNQUOTED;
+        scanState[1] = 0;
+        while (true) {
+            int lineBreak = CsvTokenizer.recordEnd(words, buf, pos, scan, limit, scanState);
+            if (lineBreak != -1) {
+                setLine(pos, lineBreak, scanState[1]);
+                pos = lineBreak + 1;
+                return true;
+            }
+            int consumed = limit - pos;
+            if (consumed > MAX_QUOTED_RECORD && scanState[0] != CsvTokenizer.UNQUOTED) {
+                return unquotedLine();
+            }
+            if (! fill()) {
+                break;
+            }
+            scan = pos + consumed;
+        }
+        if (pos < limit) {
+            if (scanState[0] == CsvTokenizer.QUOTED) {
+                return unquotedLine();
+            }
+            // Final line without a line terminator
+            setLine(pos, limit, scanState[1]);
+            pos = limit;
+            return true;
+        }
+        lineOffset = -1;
+        return false;
+    }
+
+    // The record at pos has a quote that is never closed: make the line up to the first line
+    // break (or the end of the file) the current line
+    private boolean unquotedLine() {
+        int lineBreak = pos;
+        long highBits = 0;
+        while (lineBreak < limit && buf[lineBreak] != '\n') {
+            highBits |= buf[lineBreak];
+            lineBreak++;
+        }
+        setLine(pos, lineBreak, highBits);
+        pos = Math.min(lineBreak + 1, limit);
+        return true;
+    }
+
+    private void setLine(int start, int end, long highBits) {
+        if (end > start && buf[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+        lineOffset = bufOffset + start;
+        lineIsAscii = (highBits & CsvTokenizer.HIGH_BITS) == 0;
+        lineNumber++;
+    }
+
+    // The current line as a String
+    String line() {
+        if (lineIsAscii && asciiCompatible) {
+            return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1);
+        }
+        // Not with replacement characters (see CsvTokenizer)
+        return CsvTokenizer.decode(buf, lineStart, lineEnd - lineStart, charset);
+    }
+
+    // Advance to the next line and return it, or null at end of file
+    String readLine() throws IOException {
+        return nextLine() ? line() : null;
+    }
+
+    // The first line of a file, or null if the file is empty
+    static String readFirstLine(String file) throws IOException {
+        LineReader reader = new LineReader(file);
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+
+    byte[] buffer() { return buf; }
+    int lineStart() { return lineStart; }
+    int lineEnd() { return lineEnd; }
+    long lineOffset() { return lineOffset; }
+    int lineNumber() { return lineNumber; }
+    boolean lineIsAscii() { return lineIsAscii; }
+
+    public void close() throws IOException {
+        channel.close();
+        fis.close();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * =============================================================================================
+ * Name: MergeJoinCompare.java
+ * Desc: The streaming comparison of DiffEngine, for files that are both sorted by their key.
+ *       The two files are read in lockstep and merge-joined line by line, so that the memory
+ *       used does not depend on the size of the files:
+ *         - when File 1 has a key more than once (on consecutive lines), its last line wins
+ *         - the first line of File 2 with a key is compared with File 1, any later line with
+ *           the same key is found only in File 2
+ *       The results are those of compareData, in the same order: File 2 order, then the rows
+ *       found only in File 1 in File 1 order. The latter are spilled to a temporary file while
+ *       File 2 is read and reported at the end.
+ *       Sorted means sorted by the key columns, in header order, one after the other, either
+ *       all as text (String.compareTo) or with the numeric key columns by their value (numbers
+ *       before anything else); lines whose key columns are equal that way but that are not the
+ *       same key (as PackedKey tells keys apart: say a key column that is missing from one and
+ *       empty in the other) are in the order of their PackedKey bytes.
+ *       run() first makes sure, with one pass over the keys of both files, that both files
+ *       are sorted in one of these orders; if not, it returns false and the caller compares
+ *       the files another way. A file that turns out not to be sorted while
+ *       it is merged (it changed in the meantime) is an error.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+class MergeJoinCompare {
+    static final int TEXT_ORDER = 0;
+    static final int VALUE_ORDER = 1;
+
+    private final DiffEngine engine;
+    private final File tempDir;
+    private final boolean[] numeric;     // per key column: a number column, in VALUE_ORDER
+    private int order;
+
+    // One data line
+    class Row {
+        final PackedKey key = new PackedKey();
+        final String[] keyFields = new String[engine.keyCols.length];
+        final String[] values = new String[engine.cmpCols.length];
+        int line;
+        byte[] raw = new byte[256];
+        int rawLength;
+
+        void copyFrom(Row other) {
+            key.copyFrom(other.key);
+            System.arraycopy(other.keyFields, 0, keyFields, 0, keyFields.length);
+            System.arraycopy(other.values, 0, values, 0, values.length);
+            line = other.line;
+            if (raw.length < other.rawLength) {
+                raw = new byte[Math.max(other.rawLength, raw.length * 2)];
+            }
+            System.arraycopy(other.raw, 0, raw, 0, other.rawLength);
+            rawLength = other.rawLength;
+        }
+    }
+
+    // Reads the data lines of a file; row is the current one
+    class Cursor {
+        private final LineReader reader;
+        private final LineIndex index;
+        private final boolean keysOnly;
+        private final CsvTokenizer tokenizer = engine.newTokenizer();
+        private final int keyFieldCount;
+        final Row row = new Row();
+
+        // keysOnly splits off only the key fields (to check the order); index, if not null, is
+        // filled with the line offsets of the file
+        Cursor (String file, LineIndex index, boolean keysOnly) throws IOException {
+            this.reader = engine.openLines(file);
+            this.index = index;
+            this.keysOnly = keysOnly;
+            int[] keyCols = engine.keyCols;
+            keyFieldCount = keyCols.length == 0 ? 0 : keyCols[keyCols.length - 1] + 1;
+        }
+
+        boolean next() throws IOException {
+            do {
+                if (! reader.nextLine()) {
+                    return false;
+                }
+                if (index != null) {
+                    index.add(reader.lineNumber(), reader.lineOffset());
+                }
+            } while (reader.lineNumber() == 1);    // Skip the header line
+            row.line = reader.lineNumber();
+            int[] keyCols = engine.keyCols;
+            if (keysOnly) {
+                int n = tokenizer.split(reader.buffer(), reader.lineStart(), reader.lineEnd(), keyFieldCount);
+                row.key.set(tokenizer, reader.buffer(), n, keyCols);
+                for (int i = 0; i < keyCols.length; i++) {
+                    row.keyFields[i] = keyCols[i] < n ? tokenizer.field(keyCols[i]) : "";
+                }
+                return true;
+            }
+            engine.tokenize(tokenizer, reader, row.key, row.values);
+            int n = tokenizer.fieldCount();
+            for (int i = 0; i < keyCols.length; i++) {
+                row.keyFields[i] = keyCols[i] < n ? tokenizer.field(keyCols[i]) : "";
+            }
+            int length = reader.lineEnd() - reader.lineStart();
+            if (row.raw.length < length) {
+                row.raw = new byte[Math.max(length, row.raw.length * 2)];
+            }
+            System.arraycopy(reader.buffer(), reader.lineStart(), row.raw, 0, length);
+            row.rawLength = length;
+            return true;
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    MergeJoinCompare (DiffEngine engine, File tempDir) throws IOException {
+        this.engine = engine;
+        this.tempDir = tempDir;
+        int[] keyCols = engine.keyCols;
+        ColumnType[] types = CsvFileSession.get(engine.file1).columnTypes();
+        numeric = new boolean[keyCols.length];
+        for (int i = 0; i < keyCols.length; i++) {
+            ColumnType t = types == null || keyCols[i] >= types.length ? ColumnType.TEXT : types[keyCols[i]];
+            numeric[i] = t == ColumnType.INTEGER || t == ColumnType.DECIMAL;
+        }
+    }
+
+    // Compare the files if both are sorted by key; false (and nothing reported) if not
+    boolean run() throws Exception {
+        int orders = sortedOrders(engine.file1) & sortedOrders(engine.file2);
+        if (orders == 0) {
+            return false;
+        }
+        order = (orders & (1 << TEXT_ORDER)) != 0 ? TEXT_ORDER : VALUE_ORDER;
+        mergeJoin();
+        return true;
+    }
+
+    // The orders (bit TEXT_ORDER, bit VALUE_ORDER) that the keys of a file are sorted in
+    private int sortedOrders(String file) throws IOException {
+        boolean text = true;
+        boolean value = true;
+        Row previous = new Row();
+        boolean first = true;
+        Cursor cursor = new Cursor(file, null, true);
+        try {
+            while ((text || value) && cursor.next()) {
+                if (! first) {
+                    text = text && compare(previous, cursor.row, TEXT_ORDER) <= 0;
+                    value = value && compare(previous, cursor.row, VALUE_ORDER) <= 0;
+                }
+                previous.key.copyFrom(cursor.row.key);
+                System.arraycopy(cursor.row.keyFields, 0, previous.keyFields, 0, previous.keyFields.length);
+                first = false;
+            }
+        } finally {
+            cursor.close();
+        }
+        return (text ? 1 << TEXT_ORDER : 0) | (value ? 1 << VALUE_ORDER : 0);
+    }
+
+    int compareKeys(String[] a, String[] b, int order) {
+        for (int i = 0; i < a.length; i++) {
+            if (order == VALUE_ORDER && numeric[i]) {
+                double x = NumberScanner.parse(a[i]);
+                double y = NumberScanner.parse(b[i]);
+                boolean xNumber = ! Double.isNaN(x);
+                boolean yNumber = ! Double.isNaN(y);
+                if (xNumber && yNumber) {
+                    int c = Double.compare(x, y);
+                    if (c != 0) {
+                        return c;
+                    }
+                } else if (xNumber != yNumber) {
+                    return xNumber ? -1 : 1;
+                }
+            }
+            int c = a[i].compareTo(b[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(Row a, Row b) {
+        return compare(a, b, order);
+    }
+
+    private int compare(Row a, Row b, int order) {
+        if (a.key.sameKey(b.key)) {
+            return 0;
+        }
+        int c = compareKeys(a.keyFields, b.keyFields, order);
+        return c != 0 ? c : PackedKey.compare(a.key.bytes, a.key.length, b.key.bytes, b.key.length);
+    }
+
+    // The key columns of a row, for its result
+    private String[] key(Row row) {
+        return row.key.columns(engine.charset);
+    }
+
+    private Exception notSorted(String file, int line) {
+        return new Exception(file + " is not sorted by key at line " + line + ".");
+    }
+
+    private static boolean sameLine(Row a, Row b) {
+        if (a.rawLength != b.rawLength) {
+            return false;
+        }
+        for (int i = 0; i < a.rawLength; i++) {
+            if (a.raw[i] != b.raw[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The merge-join state of File 1: the current key group (its last line) and the line after it
+    private Cursor left;
+    private boolean leftPending;
+    private Row group;
+    private boolean groupMatched;
+
+    // The rows found only in File 1, in File 1 order, until File 2 is done
+    private File spill;
+    private DataOutputStream leftOnly;
+
+    private void spillLeftOnly() throws IOException {
+        if (leftOnly == null) {
+            spill = File.createTempFile("csvdiff", ".left", tempDir);
+            spill.deleteOnExit();
+            leftOnly = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill), 1 << 16));
+        }
+        leftOnly.writeInt(group.line);
+        ExternalSorter.writeStrings(leftOnly, key(group));
+    }
+
+    // Move on to the next key group of File 1; false at the end of File 1
+    private boolean nextGroup() throws Exception {
+        if (! leftPending) {
+            return false;
+        }
+        group.copyFrom(left.row);
+        groupMatched = false;
+        while ((leftPending = left.next())) {
+            int c = compare(group, left.row);
+            if (c > 0) {
+                throw notSorted(engine.file1, left.row.line);
+            } else if (c < 0) {
+                break;
+            }
+            group.copyFrom(left.row);
+        }
+        return true;
+    }
+
+    private void mergeJoin() throws Exception {
+        boolean skipIdentical = engine.canSkipIdentical();
+        engine.lineIndex1 = new LineIndex(engine.file1);
+        engine.lineIndex2 = new LineIndex(engine.file2);
+        group = new Row();
+        Row previous = new Row();
+        left = new Cursor(engine.file1, engine.lineIndex1, false);
+        Cursor right = new Cursor(engine.file2, engine.lineIndex2, false);
+        try {
+            leftPending = left.next();
+            boolean hasGroup = nextGroup();
+            boolean first = true;
+            while (right.next()) {
+                Row r = right.row;
+                if (! first && compare(previous, r) > 0) {
+                    throw notSorted(engine.file2, r.line);
+                }
+                first = false;
+                previous.copyFrom(r);
+
+                // The key groups of File 1 before this key are found only in File 1
+                while (hasGroup && compare(group, r) < 0) {
+                    if (! groupMatched) {
+                        spillLeftOnly();
+                    }
+                    hasGroup = nextGroup();
+                }
+                if (hasGroup && ! groupMatched && compare(group, r) == 0) {
+                    groupMatched = true;
+                    engine.metrics.countMatch();
+                    // A line identical to its row needs no comparing
+                    boolean identical = skipIdentical && sameLine(group, r);
+                    BitSet mismatches = identical ? null : engine.findMismatches(r.values, group.values);
+                    if (mismatches != null) {
+                        engine.report(key(r), group.line, r.line, mismatches);
+                    }
+                } else {
+                    engine.report(key(r), -1, r.line, null);
+                }
+            }
+            // The rest of File 1 is found only in File 1
+            while (hasGroup) {
+                if (! groupMatched) {
+                    spillLeftOnly();
+                }
+                hasGroup = nextGroup();
+            }
+        } finally {
+            left.close();
+            right.close();
+            if (leftOnly != null) {
+                leftOnly.close();
+            }
+        }
+        CsvFileSession.get(engine.file1).setLineIndex(engine.lineIndex1);
+        CsvFileSession.get(engine.file2).setLineIndex(engine.lineIndex2);
+
+        if (spill != null) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spill), 1 << 16));
+            try {
+                int line;
+                while ((line = ExternalSorter.readIntOrEnd(in)) >= 0) {
+                    engine.report(ExternalSorter.readStrings(in), line, -1, null);
+                }
+            } finally {
+                in.close();
+                spill.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * =============================================================================================
+ * Name: NumberScanner.java
+ * Desc: Classifies and parses a field as a double in a single pass, without allocating and
+ *       without throwing exceptions. Accepts exactly what Double.valueOf accepts (surrounding
+ *       white space, sign, decimal and exponent notation, "NaN", "Infinity", hexadecimal
+ *       floating-point literals and a trailing f/F/d/D) and returns the same values:
+ *         - up to 18 significant digits with a decimal exponent of at most 22 are converted
+ *           exactly with one multiplication or division (Clinger's fast path)
+ *         - any other valid number is handed to Double.parseDouble, which cannot fail then
+ *       parse() returns NaN for a field that is not a number. Since "NaN" itself is a number
+ *       to Double.valueOf, isNaNLiteral() tells the two apart.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+final class NumberScanner {
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_DIGITS = 18;
+    private static final long MAX_EXACT = 1L << 53;
+
+    private NumberScanner() {
+    }
+
+    static double parse(CharSequence s) {
+        return parse(s, 0, s.length());
+    }
+
+    static boolean isNumber(CharSequence s) {
+        return ! Double.isNaN(parse(s, 0, s.length())) || isNaNLiteral(s, 0, s.length());
+    }
+
+    // The value of s[start, end) as a double, or NaN if it is not a number
+    static double parse(CharSequence s, int start, int end) {
+        // Double.valueOf trims white space (and control characters) at both ends
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return Double.NaN;
+        }
+
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            i++;
+        }
+        int digitsStart = i;
+
+        long mantissa = 0;
+        int digits = 0;          // significant digits in mantissa
+        int exp10 = 0;
+        boolean anyDigit = false;
+        boolean exact = true;    // false once a significant digit did not fit in mantissa
+
+        while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+            anyDigit = true;
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exp10++;
+                exact &= c == '0';
+            }
+            i++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exp10--;
+                } else {
+                    exact &= c == '0';
+                }
+                i++;
+            }
+        }
+        if (! anyDigit) {
+            return parseSpecial(s, i, end, negative);
+        }
+        if (i == digitsStart + 1 && s.charAt(digitsStart) == '0'
+                && i < end && (s.charAt(i) == 'x' || s.charAt(i) == 'X')) {
+            return parseHex(s, start, i + 1, end);
+        }
+
+        if (i < end && ((c = s.charAt(i)) == 'e' || c == 'E')) {
+            i++;
+            boolean expNegative = false;
+            if (i < end && ((c = s.charAt(i)) == '+' || c == '-')) {
+                expNegative = c == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean anyExpDigit = false;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+                anyExpDigit = true;
+                if (exp < 100000) {
+                    exp = exp * 10 + (c - '0');
+                }
+                i++;
+            }
+            if (! anyExpDigit) {
+                return Double.NaN;
+            }
+            exp10 += expNegative ? -exp : exp;
+        }
+
+        boolean floatSuffix = false;
+        if (i < end && ((c = s.charAt(i)) == 'f' || c == 'F' || c == 'd' || c == 'D')) {
+            floatSuffix = c == 'f' || c == 'F';
+            i++;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+
+        if (mantissa == 0 && exact) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (exact && ! floatSuffix && mantissa <= MAX_EXACT && exp10 >= -22 && exp10 <= 22) {
+            double value = exp10 >= 0 ? mantissa * POW10[exp10] : mantissa / POW10[-exp10];
+            return negative ? -value : value;
+        }
+        // A valid number that needs full precision; this cannot throw
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    // "NaN" or "Infinity" after an optional sign
+    private static double parseSpecial(CharSequence s, int i, int end, boolean negative) {
+        if (matches(s, i, end, "Infinity")) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        return Double.NaN;
+    }
+
+    // True if s[start, end) is "NaN" with optional sign and surrounding white space
+    static boolean isNaNLiteral(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end && (s.charAt(start) == '+' || s.charAt(start) == '-')) {
+            start++;
+        }
+        return matches(s, start, end, "NaN");
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean matches(CharSequence s, int i, int end, String word) {
+        if (end - i != word.length()) {
+            return false;
+        }
+        for (int j = 0; j < word.length(); j++) {
+            if (s.charAt(i + j) != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hexadecimal literal: 0x <hex digits> [. <hex digits>] p [sign] <digits> [fFdD];
+    // i is just past the 'x'. Validated here, converted by Double.parseDouble.
+    private static double parseHex(CharSequence s, int start, int i, int end) {
+        boolean anyDigit = false;
+        char c;
+        while (i < end && isHexDigit(s.charAt(i))) {
+            anyDigit = true;
+            i++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && isHexDigit(s.charAt(i))) {
+                anyDigit = true;
+                i++;
+            }
+        }
+        if (! anyDigit || i >= end || ((c = s.charAt(i)) != 'p' && c != 'P')) {
+            return Double.NaN;
+        }
+        i++;
+        if (i < end && ((c = s.charAt(i)) == '+' || c == '-')) {
+            i++;
+        }
+        boolean anyExpDigit = false;
+        while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+            anyExpDigit = true;
+            i++;
+        }
+        if (i < end && ((c = s.charAt(i)) == 'f' || c == 'F' || c == 'd' || c == 'D')) {
+            i++;
+        }
+        if (! anyExpDigit || i != end) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+}
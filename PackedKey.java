@@ -0,0 +1,194 @@
+/*
+ * =============================================================================================
+ * Name: PackedKey.java
+ * Desc: The composite key of one line as RowStore looks it up, packed without making a String
+ *       of it. The bytes of a key are the bytes of each key column in the file (without its
+ *       quotes, if it is quoted) preceded by their varint length, so a comma inside a key value
+ *       can no longer make two different keys equal (as joining the key columns by commas did),
+ *       and neither can two values that the charset of the file does not decode. The bytes of
+ *       unquoted columns are taken straight from the line.
+ *       A key that is a single integer column of at most 18 digits, or two integer columns of
+ *       at most 9 digits each, is also a long: the number, or the two numbers packed high and
+ *       low. Only integers written the one way Long.toString writes them count (no '+', no
+ *       leading zeros, no "-0"), so that two keys are equal as longs exactly when their bytes
+ *       are equal. RowStore keeps those keys in a table of longs.
+ *       A PackedKey is meant to be reused from line to line by one thread; columns() decodes the
+ *       key columns for the results, only when they are needed. text() makes the key as the text
+ *       results show it: the key columns joined by commas, each one quoted as in a csv line if it
+ *       has to be (see CsvTokenizer.quote), so that the columns can be told apart again. A single
+ *       key column is shown as it is.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+class PackedKey {
+    static final int MAX_LONG_DIGITS = 18;
+    static final int MAX_INT_DIGITS = 9;
+
+    byte[] bytes = new byte[64];
+    int length;
+    boolean isLong;
+    long value;
+    int hash;
+
+    private int fields;
+    private int maxDigits;        // of the next column, for it to fit in value
+    private boolean numeric;      // all the columns so far are integers that fit
+
+    // The key of the line that t has just split from b into fieldCount fields. keyCols are the
+    // positions of the key columns. A single key column missing from a short line is empty;
+    // with several key columns, the key ends at the first one missing.
+    void set(CsvTokenizer t, byte[] b, int fieldCount, int[] keyCols) {
+        clear(keyCols.length);
+        if (keyCols.length == 1 && keyCols[0] >= fieldCount) {
+            add(b, 0, 0);
+        }
+        for (int i = 0; i < keyCols.length && keyCols[i] < fieldCount; i++) {
+            int k = keyCols[i];
+            if (t.isQuoted(k)) {
+                add(t.unquoted(), 0, t.unquote(k));
+            } else {
+                add(b, t.fieldStart(k), t.fieldEnd(k));
+            }
+        }
+        finish(keyCols.length);
+    }
+
+    // The key made of the key columns in columns, of a file in the charset cs with keyCount
+    // key columns
+    void set(String[] columns, int keyCount, Charset cs) {
+        clear(keyCount);
+        for (String c : columns) {
+            byte[] v = c.getBytes(cs);
+            add(v, 0, v.length);
+        }
+        finish(keyCount);
+    }
+
+    void copyFrom(PackedKey other) {
+        if (bytes.length < other.length) {
+            bytes = new byte[Math.max(other.length, bytes.length * 2)];
+        }
+        System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+        length = other.length;
+        isLong = other.isLong;
+        value = other.value;
+        hash = other.hash;
+    }
+
+    // Whether other is the same key, as RowStore finds keys
+    boolean sameKey(PackedKey other) {
+        return hash == other.hash && Arrays.equals(bytes, 0, length, other.bytes, 0, other.length);
+    }
+
+    // The order of two keys by their bytes (unsigned), for sorting keys that are only compared
+    // for equality otherwise
+    static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        return Arrays.compareUnsigned(a, 0, aLength, b, 0, bLength);
+    }
+
+    private void clear(int keyCount) {
+        length = 0;
+        fields = 0;
+        numeric = keyCount <= 2;
+        maxDigits = keyCount == 1 ? MAX_LONG_DIGITS : MAX_INT_DIGITS;
+        value = 0;
+    }
+
+    // Append the key column b[from, to)
+    private void add(byte[] b, int from, int to) {
+        int n = to - from;
+        if (bytes.length < length + 5 + n) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + 5 + n, bytes.length * 2));
+        }
+        length = RowStore.writeVarint(bytes, length, n);
+        System.arraycopy(b, from, bytes, length, n);
+        length += n;
+        fields++;
+        if (numeric) {
+            numeric = parse(b, from, to);
+        }
+    }
+
+    // Add the integer b[from, to) of at most maxDigits digits to value; false if it is not one
+    private boolean parse(byte[] b, int from, int to) {
+        boolean negative = from < to && b[from] == '-';
+        int i = negative ? from + 1 : from;
+        int digits = to - i;
+        if (digits == 0 || digits > maxDigits || (b[i] == '0' && (digits > 1 || negative))) {
+            return false;
+        }
+        long v = 0;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return false;
+            }
+            v = v * 10 + d;
+        }
+        if (negative) {
+            v = -v;
+        }
+        if (fields == 1) {
+            value = v;
+        } else {
+            // Checked for 9 digits, so both fit in an int
+            value = (value << 32) | (v & 0xFFFFFFFFL);
+        }
+        return true;
+    }
+
+    private void finish(int keyCount) {
+        isLong = numeric && fields == keyCount;
+        hash = isLong ? hash(value) : RowStore.hash(bytes, 0, length);
+    }
+
+    // The key columns, decoded from the charset cs. With several key columns there are as
+    // many as the line had, up to the first one missing (see set()).
+    String[] columns(Charset cs) {
+        return columns(bytes, 0, length, cs);
+    }
+
+    // The key columns packed in b[from, to), decoded from the charset cs
+    static String[] columns(byte[] b, int from, int to, Charset cs) {
+        int count = 0;
+        for (int pos = from; pos < to; count++) {
+            int n = RowStore.readVarint(b, pos);
+            pos += RowStore.varintSize(n) + n;
+        }
+        String[] columns = new String[count];
+        int pos = from;
+        for (int i = 0; i < count; i++) {
+            int n = RowStore.readVarint(b, pos);
+            pos += RowStore.varintSize(n);
+            columns[i] = CsvTokenizer.decode(b, pos, n, cs);
+            pos += n;
+        }
+        return columns;
+    }
+
+    // The key columns joined into the one text the text results show for a key
+    static String text(String[] columns) {
+        if (columns.length == 1) {
+            return columns[0];
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(CsvTokenizer.quote(columns[i]));
+        }
+        return sb.toString();
+    }
+
+    static int hash(long v) {
+        v = (v ^ (v >>> 33)) * 0xff51afd7ed558ccdL;
+        v = (v ^ (v >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (v ^ (v >>> 33));
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * =============================================================================================
+ * Name: ParallelCompare.java
+ * Desc: The multi-core version of DiffEngine.compareData. File 2 is split into byte ranges that
+ *       start on line (record) boundaries, which are found in parallel from the bytes around
+ *       each boundary (see recordStartAfter) rather than by reading File 2 from its start, and
+ *       the ranges are compared on a ForkJoinPool against the RowStore of File 1, which is only read, never changed, while the ranges are compared.
+ *       Instead of marking rows in the RowStore, every line of File 2 that finds its key claims
+ *       the row in an AtomicLongArray. The earliest line in file order wins the claim, which is
+ *       what the single-threaded compareData does when File 2 has a key more than once; later
+ *       lines with the same key are reported as found only in File 2.
+ *       Each range keeps its own results and line count until it and all ranges before it are
+ *       done: from then on no earlier line can take a row from its lines, so its results are
+ *       final and are reported, in file order with their real line numbers, by the thread that
+ *       finishes last of them. Once all ranges are reported the rows found only in File 1
+ *       follow, so the output is the same as that of compareData. The claimed rows are then
+ *       marked as matched in the RowStore, as compareData would have left them.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class ParallelCompare {
+    static final long MIN_RANGE_SIZE = 1L << 20;
+    static final int WINDOW_BLOCK_SIZE = 1 << 16;
+
+    private final DiffEngine engine;
+    private final String strFile;
+    private final RowStore store;
+    private final int parallelism;
+
+    // Per row of File 1: 0 if unclaimed, otherwise (order << 1 | hasEntry) of the claiming line,
+    // where order = range << 32 | line within range. hasEntry is set when the claiming line
+    // was recorded as a result of its range (a mismatch).
+    private final AtomicLongArray claims;
+
+    private long[] rangeStart;
+    private ArrayList<ArrayList<Result>> rangeResults;
+    private int[] rangeLines;
+
+    // By range: the lines of File 2 that lost their claim and were not recorded by their range
+    private ArrayList<ArrayList<Result>> rangeDuplicates;
+
+    // Ranges are reported in order, under reportLock: reported of them so far, the first
+    // of which has the line number firstLine[reported] (the header is line 1)
+    private final Object reportLock = new Object();
+    private boolean[] rangeDone;
+    private int[] firstLine;
+    private int reported;
+
+    static class Result {
+        long order;
+        int row;               // row of File 1, or -1 if the key is not in File 1
+        String[] key;
+        BitSet mismatches;
+        Result (long order, int row, String[] key, BitSet mismatches) {
+            this.order = order;
+            this.row = row;
+            this.key = key;
+            this.mismatches = mismatches;
+        }
+    }
+
+    ParallelCompare (DiffEngine engine, String strFile, RowStore store, int parallelism) {
+        this.engine = engine;
+        this.strFile = strFile;
+        this.store = store;
+        this.parallelism = parallelism;
+        this.claims = new AtomicLongArray(store.size());
+    }
+
+    void run() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            splitFile(pool);
+            compareRanges(pool);
+        } finally {
+            pool.shutdown();
+        }
+        reportUnmatched();
+    }
+
+    private void compareRanges(ForkJoinPool pool) throws Exception {
+        int n = rangeStart.length - 1;
+        rangeResults = new ArrayList<ArrayList<Result>>(n);
+        rangeDuplicates = new ArrayList<ArrayList<Result>>(n);
+        for (int i = 0; i < n; i++) {
+            rangeResults.add(null);
+            rangeDuplicates.add(new ArrayList<Result>());
+        }
+        rangeLines = new int[n];
+        rangeDone = new boolean[n];
+        firstLine = new int[n + 1];
+        firstLine[0] = 1;
+
+        try {
+            pool.invoke(new RangeTask(0, n));
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    // Split File 2 into byte ranges that start at the beginning of a record, one boundary about
+    // every rangeSize bytes. The boundaries are found on the threads of pool, each from the
+    // bytes after it (see recordStartAfter); only if one of them cannot be found that way is
+    // File 2 read from its start (see splitFileSerially).
+    private void splitFile(ForkJoinPool pool) throws Exception {
+        final long size = new File(strFile).length();
+        long rangeSize = Math.max(MIN_RANGE_SIZE, size / (parallelism * 4L) + 1);
+        ArrayList<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (long pos = rangeSize; pos < size; pos += rangeSize) {
+            final long at = pos;
+            tasks.add(new Callable<Long>() {
+                public Long call() throws IOException {
+                    return recordStartAfter(at, size);
+                }
+            });
+        }
+        ArrayList<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        for (Future<Long> f : pool.invokeAll(tasks)) {
+            long start;
+            try {
+                start = f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+            if (start == -1) {
+                splitFileSerially(size, rangeSize);
+                return;
+            }
+            if (start > starts.get(starts.size() - 1) && start < size) {
+                starts.add(start);
+            }
+        }
+        setRanges(starts, size);
+    }
+
+    // The offset of the first record that starts at or after pos, told from the bytes of File 2
+    // from pos - 1 on only, or -1 if they do not tell within LineReader.MAX_QUOTED_RECORD bytes.
+    // The first line break at or after pos - 1 ends a record unless it is inside a quoted field.
+    // The bytes after it are read both ways, as the start of a record and as inside quotes, the
+    // way CsvTokenizer.recordEnd reads them (see Scan):
+    //   - inside quotes, a field that is not closed within MAX_QUOTED_RECORD bytes (or before
+    //     the end of the file) is not a quoted field to LineReader, so a record starts there
+    //   - otherwise, the first line break at which both ways end a record ends one either way,
+    //     and from there on the two are the same, so a record starts after it.
+    private long recordStartAfter(long pos, long size) throws IOException {
+        Window w = new Window(pos - 1, size);
+        try {
+            long i = pos - 1;
+            int c;
+            while ((c = w.byteAt(i)) != '\n') {
+                if (c == -1) {
+                    return size;              // in the last record
+                }
+                if (i - pos >= LineReader.MAX_QUOTED_RECORD) {
+                    return -1;
+                }
+                i++;
+            }
+            long start = i + 1;
+            long limit = Math.min(size, start + LineReader.MAX_QUOTED_RECORD);
+            Scan asRecord = new Scan(CsvTokenizer.UNQUOTED);
+            Scan asQuoted = new Scan(CsvTokenizer.QUOTED);
+            for (i = start; i < limit; i++) {
+                c = w.byteAt(i);
+                boolean recordEnd = asRecord.step(c);
+                if (asQuoted.step(c) && recordEnd) {
+                    return i + 1;
+                }
+            }
+            if (asQuoted.state == CsvTokenizer.QUOTED) {
+                return start;                 // never closed
+            }
+            // Closed, and at the end of the file both ways end the last record there
+            return limit == size ? size : -1;
+        } finally {
+            w.close();
+        }
+    }
+
+    // A scan of the bytes of a record, one at a time, in the states of CsvTokenizer.recordEnd
+    static class Scan {
+        int state;
+        private boolean fieldStart;
+
+        Scan (int state) {
+            this.state = state;
+            this.fieldStart = state == CsvTokenizer.UNQUOTED;
+        }
+
+        // Take the next byte c; true if it is the line break that ends the record
+        boolean step(int c) {
+            if (state == CsvTokenizer.QUOTE_IN_QUOTED) {
+                // A doubled quote stays in the field, anything else closes it
+                if (c == '"') {
+                    state = CsvTokenizer.QUOTED;
+                    return false;
+                }
+                state = CsvTokenizer.UNQUOTED;
+                fieldStart = false;
+            }
+            if (state == CsvTokenizer.QUOTED) {
+                if (c == '"') {
+                    state = CsvTokenizer.QUOTE_IN_QUOTED;
+                }
+                return false;
+            }
+            if (c == '\n') {
+                fieldStart = true;
+                return true;
+            }
+            if (c == '"' && fieldStart) {
+                state = CsvTokenizer.QUOTED;
+            }
+            fieldStart = c == ',';
+            return false;
+        }
+    }
+
+    // The bytes of File 2 from an offset on, read a block at a time as they are asked for. The
+    // blocks count as read twice (see DiffEngine.scanLines), and stop a cancelled comparison.
+    private class Window {
+        private final FileInputStream in;
+        private final FileChannel channel;
+        private final long offset;
+        private final long size;
+        private byte[] buf = new byte[WINDOW_BLOCK_SIZE];
+        private int length;
+
+        Window (long offset, long size) throws IOException {
+            in = new FileInputStream(strFile);
+            channel = in.getChannel();
+            this.offset = offset;
+            this.size = size;
+        }
+
+        // The byte at pos (0 to 255), or -1 at the end of the file
+        int byteAt(long pos) throws IOException {
+            if (pos >= size) {
+                return -1;
+            }
+            while (pos - offset >= length) {
+                engine.checkCancelled();
+                if (length == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, length);
+                    buf = bigger;
+                }
+                int n = channel.read(ByteBuffer.wrap(buf, length, buf.length - length), offset + length);
+                if (n < 0) {
+                    return -1;
+                }
+                length += n;
+                engine.metrics.countBytesReread(n);
+            }
+            return buf[(int) (pos - offset)] & 0xFF;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Split File 2 as splitFile does, with the boundaries found by one pass of a LineReader over
+    // File 2 (it only scans for the ends of the records)
+    private void splitFileSerially(long size, long rangeSize) throws IOException {
+        ArrayList<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        long pos = rangeSize;
+        if (pos < size) {
+            LineReader reader = engine.scanLines(strFile);
+            try {
+                while (reader.nextLine()) {
+                    engine.checkCancelled();
+                    long start = reader.lineOffset();
+                    if (start >= pos) {
+                        starts.add(start);
+                        pos = start + rangeSize;
+                        if (pos >= size) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        setRanges(starts, size);
+    }
+
+    private void setRanges(ArrayList<Long> starts, long size) {
+        rangeStart = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            rangeStart[i] = starts.get(i);
+        }
+        rangeStart[starts.size()] = size;
+    }
+
+    class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        RangeTask (int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, mid), new RangeTask(mid, to));
+                return;
+            }
+            try {
+                compareRange(from);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    private void compareRange(int range) throws Exception {
+        ArrayList<Result> results = new ArrayList<Result>();
+        String[] values = new String[engine.cmpCols.length];
+        String[] storedValues = new String[engine.cmpCols.length];
+        RowStore.Probe probe = store.new Probe();
+        CsvTokenizer tokenizer = engine.newTokenizer();
+        boolean skipIdentical = engine.canSkipIdentical();
+        int localLine = 0;
+        PackedKey key = new PackedKey();
+
+        LineReader reader = engine.openLines(strFile, rangeStart[range], rangeStart[range + 1]);
+        LineReader rows = engine.openStoredRows(store);
+        try {
+            while (reader.nextLine()) {
+                localLine++;
+                // Skip the header line
+                if (range == 0 && localLine == 1) {
+                    continue;
+                }
+                long order = ((long) range << 32) | localLine;
+                int row;
+                // A line identical to its row needs neither tokenizing nor comparing
+                if (skipIdentical) {
+                    row = probe.findIdentical(reader.buffer(), reader.lineStart(), reader.lineEnd(),
+                                              engine.header.size(), engine.keyCols, engine.cmpCols);
+                    if (row != -1) {
+                        claim(row, order, false);
+                        continue;
+                    }
+                }
+                engine.tokenize(tokenizer, reader, key, values);
+                row = store.find(key);
+                if (row == -1) {
+                    results.add(new Result(order, -1, key.columns(engine.charset), null));
+                    continue;
+                }
+                engine.storedValues(store, probe, row, rows, tokenizer, storedValues);
+                BitSet mismatches = engine.findMismatches(values, storedValues, probe);
+                boolean hasEntry = mismatches != null;
+                if (hasEntry) {
+                    results.add(new Result(order, row, store.key(row), mismatches));
+                }
+                claim(row, order, hasEntry);
+            }
+        } finally {
+            reader.close();
+            if (rows != null) {
+                rows.close();
+            }
+        }
+        rangeDone(range, results, localLine);
+    }
+
+    // Let the earliest line of File 2 win the row; remember the loser if its range has no entry for it.
+    private void claim(int row, long order, boolean hasEntry) {
+        long mine = (order << 1) | (hasEntry ? 1 : 0);
+        while (true) {
+            long current = claims.get(row);
+            if (current != 0 && (current >>> 1) < order) {
+                if (! hasEntry) {
+                    addDuplicate(new Result(order, -1, store.key(row), null));
+                }
+                return;
+            }
+            if (claims.compareAndSet(row, current, mine)) {
+                if (current != 0 && (current & 1) == 0) {
+                    addDuplicate(new Result(current >>> 1, -1, store.key(row), null));
+                }
+                return;
+            }
+        }
+    }
+
+    private void addDuplicate(Result r) {
+        ArrayList<Result> duplicates = rangeDuplicates.get((int) (r.order >>> 32));
+        synchronized (duplicates) {
+            duplicates.add(r);
+        }
+    }
+
+    // Range range is done; report it and the ranges after it that are done, as far as all
+    // ranges before them are
+    private void rangeDone(int range, ArrayList<Result> results, int lines) throws IOException {
+        synchronized (reportLock) {
+            rangeResults.set(range, results);
+            rangeLines[range] = lines;
+            rangeDone[range] = true;
+            while (reported < rangeDone.length && rangeDone[reported]) {
+                reportRange(reported);
+                firstLine[reported + 1] = firstLine[reported] + rangeLines[reported];
+                rangeResults.set(reported, null);
+                rangeDuplicates.set(reported, null);
+                reported++;
+            }
+        }
+    }
+
+    // Report the results of a range in file order, the way compareData does
+    private void reportRange(int range) throws IOException {
+        ArrayList<Result> duplicates = rangeDuplicates.get(range);
+        Collections.sort(duplicates, new Comparator<Result>() {
+            public int compare(Result a, Result b) {
+                return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+            }
+        });
+        int d = 0;
+        for (Result r : rangeResults.get(range)) {
+            while (d < duplicates.size() && duplicates.get(d).order < r.order) {
+                reportOnlyInFile2(duplicates.get(d++));
+            }
+            if (r.row == -1 || (claims.get(r.row) >>> 1) != r.order) {
+                reportOnlyInFile2(r);
+            } else {
+                engine.report(r.key, store.lineNumber(r.row), lineNumber(r.order), r.mismatches);
+            }
+        }
+        while (d < duplicates.size()) {
+            reportOnlyInFile2(duplicates.get(d++));
+        }
+    }
+
+    // Once all ranges are reported: the unclaimed rows are the ones found only in the first
+    // file; the claimed ones are now marked as matched by their line
+    private void reportUnmatched() throws IOException {
+        for (int row = 0; row < store.size(); row++) {
+            long claim = claims.get(row);
+            if (claim != 0) {
+                engine.metrics.countMatch();
+                store.markMatched(row, lineNumber(claim >>> 1));
+            } else if (! store.isMatched(row)) {
+                engine.report(store.key(row), store.lineNumber(row), -1, null);
+            }
+        }
+    }
+
+    private void reportOnlyInFile2(Result r) throws IOException {
+        engine.report(r.key, -1, lineNumber(r.order), null);
+    }
+
+    private int lineNumber(long order) {
+        return firstLine[(int) (order >>> 32)] + (int) order - 1;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * =============================================================================================
+ * Name: PartitionedCompare.java
+ * Desc: The hash-partitioned (grace hash join) comparison of DiffEngine. One streaming pass
+ *       splits each file into bucket files on disk by the hash of the PackedKey of each line, so
+ *       that all lines with a key land in the same bucket and keep their file order; the lines
+ *       go into the buckets as they are, and are tokenized only once, in their bucket. Each
+ *       pair of buckets is then compared in memory the way loadData/compareData do it: the
+ *       bucket of File 1 is loaded into a RowStore and the bucket of File 2 is looked up in it.
+ *       Several bucket pairs are compared at once on a ForkJoinPool.
+ *       The results go through an ExternalSorter, into the order that compareData reports them
+ *       in, before they are reported. The sorter gets a fifth of the memory budget, and the
+ *       number of buckets is chosen so that the buckets being compared at the same time fit in
+ *       the rest of it.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class PartitionedCompare {
+    static final int MAX_BUCKETS = 512;
+    static final int BUCKET_BUFFER_SIZE = 1 << 15;
+
+    // RowStore needs about the file size plus some bytes per row; allow for twice the file size
+    static final int STORE_OVERHEAD = 2;
+
+    private final DiffEngine engine;
+    private final long memoryBudget;
+    private final File tempDir;
+    private final int parallelism;
+    private int bucketCount;
+    private File[] buckets1, buckets2;
+    private ExternalSorter<SortMergeCompare.Result> results;
+
+    PartitionedCompare (DiffEngine engine, long memoryBudget, File tempDir, int parallelism) {
+        this.engine = engine;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+        this.parallelism = parallelism;
+    }
+
+    void run() throws Exception {
+        long size1 = new File(engine.file1).length();
+        // The results are sorted while the buckets are compared, so they get a share of the one
+        // budget (as in SortMergeCompare) and the buckets being compared the rest of it
+        long resultBudget = memoryBudget / SortMergeCompare.BUDGET_SHARES;
+        long perBucket = Math.max(1, (memoryBudget - resultBudget) / parallelism);
+        bucketCount = (int) Math.min(MAX_BUCKETS, Math.max(1, (size1 * STORE_OVERHEAD + perBucket - 1) / perBucket));
+        results = new ExternalSorter<SortMergeCompare.Result>(SortMergeCompare.RESULT_ORDER, new SortMergeCompare.ResultCodec(),
+                                                              resultBudget, tempDir);
+        ExternalSorter.Reader<SortMergeCompare.Result> sortedResults = null;
+        try {
+            buckets1 = partition(engine.file1);
+            buckets2 = partition(engine.file2);
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new BucketTask(0, bucketCount));
+            } catch (RuntimeException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            } finally {
+                pool.shutdown();
+            }
+
+            sortedResults = results.sort();
+            SortMergeCompare.Result r;
+            while ((r = sortedResults.next()) != null) {
+                engine.report(r.key, r.leftLine, r.rightLine, r.mismatches);
+            }
+        } finally {
+            if (sortedResults != null) {
+                sortedResults.close();
+            } else {
+                synchronized (results) {
+                    results.discard();
+                }
+            }
+            deleteBuckets(buckets1);
+            deleteBuckets(buckets2);
+        }
+    }
+
+    // The bucket of a key. The hash is mixed once more (Fibonacci hashing, taking the high
+    // bits) so that the keys of one bucket do not share the low bits the RowStore of the bucket
+    // finds its slots by.
+    static int bucketOf(PackedKey key, int bucketCount) {
+        long h = ((key.hash & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L) >>> 32;
+        return (int) ((h * bucketCount) >>> 32);
+    }
+
+    // Split the data lines of a file into bucket files of (line number, line length, line bytes).
+    // A line is only split up to its last key column, for its key; the values are tokenized
+    // when its bucket is compared.
+    private File[] partition(String strFile) throws IOException {
+        File[] files = new File[bucketCount];
+        DataOutputStream[] outs = new DataOutputStream[bucketCount];
+        int[] keyCols = engine.keyCols;
+        int keyFieldCount = keyCols.length == 0 ? 0 : keyCols[keyCols.length - 1] + 1;
+        PackedKey key = new PackedKey();
+        CsvTokenizer tokenizer = engine.newTokenizer();
+        LineReader reader = engine.openLines(strFile);
+        boolean done = false;
+        try {
+            for (int i = 0; i < bucketCount; i++) {
+                files[i] = File.createTempFile("csvdiff", ".bucket", tempDir);
+                files[i].deleteOnExit();
+                outs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), BUCKET_BUFFER_SIZE));
+            }
+            // Skip the header line
+            reader.nextLine();
+            while (reader.nextLine()) {
+                byte[] b = reader.buffer();
+                int n = tokenizer.split(b, reader.lineStart(), reader.lineEnd(), keyFieldCount);
+                key.set(tokenizer, b, n, keyCols);
+                DataOutputStream out = outs[bucketOf(key, bucketCount)];
+                out.writeInt(reader.lineNumber());
+                out.writeInt(reader.lineEnd() - reader.lineStart());
+                out.write(b, reader.lineStart(), reader.lineEnd() - reader.lineStart());
+            }
+            done = true;
+        } finally {
+            reader.close();
+            for (int i = 0; i < bucketCount; i++) {
+                if (outs[i] != null) {
+                    outs[i].close();
+                }
+            }
+            if (! done) {
+                deleteBuckets(files);
+            }
+        }
+        return files;
+    }
+
+    private static void deleteBuckets(File[] files) {
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f != null) {
+                f.delete();
+            }
+        }
+    }
+
+    class BucketTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        BucketTask (int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BucketTask(from, mid), new BucketTask(mid, to));
+                return;
+            }
+            try {
+                compareBucket(from);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    // Load bucket i of File 1 into a RowStore and compare bucket i of File 2 against it
+    private void compareBucket(int i) throws Exception {
+        String[] values = new String[engine.cmpCols.length];
+        String[] storedValues = new String[engine.cmpCols.length];
+        RowStore store = new RowStore(engine.cmpCols.length);
+        store.setKeyCharset(engine.charset);
+        CsvTokenizer tokenizer = engine.newTokenizer();
+        PackedKey key = new PackedKey();
+        int lineNumber;
+
+        BucketReader in = new BucketReader(buckets1[i]);
+        try {
+            while ((lineNumber = in.next()) >= 0) {
+                engine.checkCancelled();
+                engine.tokenize(tokenizer, in.buf, 0, in.length, key, values);
+                store.add(key, values, lineNumber);
+            }
+        } finally {
+            in.close();
+        }
+        buckets1[i].delete();
+
+        RowStore.Probe probe = store.new Probe();
+        boolean skipIdentical = engine.canSkipIdentical();
+        in = new BucketReader(buckets2[i]);
+        try {
+            while ((lineNumber = in.next()) >= 0) {
+                engine.checkCancelled();
+                // A line identical to its row needs neither tokenizing nor comparing
+                if (skipIdentical) {
+                    int row = probe.findIdentical(in.buf, 0, in.length, engine.header.size(), engine.keyCols, engine.cmpCols);
+                    if (row != -1 && store.markMatched(row, lineNumber)) {
+                        engine.metrics.countMatch();
+                        continue;
+                    }
+                }
+                engine.tokenize(tokenizer, in.buf, 0, in.length, key, values);
+                int row = store.find(key);
+                if (row != -1 && store.markMatched(row, lineNumber)) {
+                    engine.metrics.countMatch();
+                    probe.values(row, storedValues);
+                    BitSet mismatches = engine.findMismatches(values, storedValues, probe);
+                    if (mismatches != null) {
+                        addResult(new SortMergeCompare.Result(0, lineNumber, store.lineNumber(row), lineNumber, store.key(row), mismatches));
+                    }
+                } else {
+                    String[] columns = row != -1 ? store.key(row) : key.columns(engine.charset);
+                    addResult(new SortMergeCompare.Result(0, lineNumber, -1, lineNumber, columns, null));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        buckets2[i].delete();
+
+        // The unmatched rows of this bucket are the ones found only in the first file
+        for (int row = 0; row < store.size(); row++) {
+            if (! store.isMatched(row)) {
+                addResult(new SortMergeCompare.Result(1, store.lineNumber(row), store.lineNumber(row), -1, store.key(row), null));
+            }
+        }
+    }
+
+    private void addResult(SortMergeCompare.Result r) throws IOException {
+        synchronized (results) {
+            results.add(r);
+        }
+    }
+
+    // Reads the (line number, line) records of one bucket file
+    static class BucketReader {
+        private final DataInputStream in;
+        private byte[] buf = new byte[256];
+        private int length;
+
+        BucketReader (File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUCKET_BUFFER_SIZE));
+        }
+
+        // Read the next record and return its line number, or -1 at the end of the bucket
+        int next() throws IOException {
+            int lineNumber = ExternalSorter.readIntOrEnd(in);
+            if (lineNumber < 0) {
+                return -1;
+            }
+            length = in.readInt();
+            if (buf.length < length) {
+                buf = new byte[Math.max(length, buf.length * 2)];
+            }
+            in.readFully(buf, 0, length);
+            return lineNumber;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
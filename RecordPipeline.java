@@ -0,0 +1,256 @@
+/*
+ * =============================================================================================
+ * Name: RecordPipeline.java
+ * Desc: Reads, parses and consumes the data lines of a csv file in three overlapping stages,
+ *       so that waiting for the disk, tokenizing and comparing are not done one after another
+ *       on one thread:
+ *         - a reader thread copies the lines into batches (and fills the LineIndex of the file)
+ *         - parser threads work on whole batches, each with a Parser of its own
+ *         - the calling thread commits the parsed batches in file order (see commit())
+ *       The stages hand batches to each other through bounded queues. A fixed number of
+ *       batches is allocated up front and a committed batch goes back to the reader to be
+ *       filled again, so a slow stage makes the stages before it wait instead of piling up
+ *       batches in memory.
+ *       Subclasses say what parsing a batch and committing it mean (see DiffEngine, which
+ *       runs loadData and compareData this way). The header line is not passed on.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+
+abstract class RecordPipeline {
+    static final int BATCH_LINES = 2048;
+    static final int BATCH_BYTES = 1 << 18;
+
+    // A run of consecutive data lines of the file and what the parsers made of them
+    static class Batch {
+        int seq;                  // position of the batch in the file
+        int count;                // number of lines
+        byte[] data = new byte[BATCH_BYTES];
+        int used;
+        final int[] start = new int[BATCH_LINES];
+        final int[] end = new int[BATCH_LINES];
+        final int[] lineNumber = new int[BATCH_LINES];
+        final long[] offset = new long[BATCH_LINES];
+
+        // Filled in by the parsers
+        final String[][] keys = new String[BATCH_LINES][];
+        final PackedKey[] packedKeys = new PackedKey[BATCH_LINES];
+        final String[][] values = new String[BATCH_LINES][];
+        final int[] rows = new int[BATCH_LINES];
+        final boolean[] identical = new boolean[BATCH_LINES];
+        final BitSet[] mismatches = new BitSet[BATCH_LINES];
+
+        boolean isFull(int length) {
+            return count == BATCH_LINES || (count > 0 && used + length > data.length);
+        }
+
+        void add(byte[] b, int from, int to, int line, long lineOffset) {
+            int length = to - from;
+            if (used + length > data.length) {
+                byte[] bigger = new byte[Math.max(used + length, data.length * 2)];
+                System.arraycopy(data, 0, bigger, 0, used);
+                data = bigger;
+            }
+            System.arraycopy(b, from, data, used, length);
+            start[count] = used;
+            end[count] = used + length;
+            lineNumber[count] = line;
+            offset[count] = lineOffset;
+            used += length;
+            count++;
+        }
+
+        void clear(int seq) {
+            this.seq = seq;
+            count = 0;
+            used = 0;
+        }
+    }
+
+    // The work of one parser thread; not shared with other threads
+    interface Parser {
+        void parse(Batch batch) throws Exception;
+        void close() throws IOException;
+    }
+
+    private static final Batch END = new Batch();
+
+    private final String file;
+    private final int parsers;
+    private final LineIndex lineIndex;
+    private final LineReader.Listener listener;
+    private final ArrayBlockingQueue<Batch> free;
+    private final ArrayBlockingQueue<Batch> read;
+    private final Batch[] parsed;            // by seq modulo the number of batches
+    private final Object lock = new Object();
+    private int batchCount = -1;             // known once the reader is done
+    private Exception failure;
+
+    // parsers is the number of parser threads; lineIndex, if not null, is filled with the
+    // offsets of all lines of the file; listener, if not null, is the one of the LineReader
+    RecordPipeline (String file, int parsers, LineIndex lineIndex, LineReader.Listener listener) {
+        this.file = file;
+        this.parsers = Math.max(1, parsers);
+        this.lineIndex = lineIndex;
+        this.listener = listener;
+        int batches = this.parsers * 2 + 2;
+        free = new ArrayBlockingQueue<Batch>(batches);
+        read = new ArrayBlockingQueue<Batch>(batches + this.parsers);
+        parsed = new Batch[batches];
+        for (int i = 0; i < batches; i++) {
+            free.add(new Batch());
+        }
+    }
+
+    // A parser for one parser thread
+    abstract Parser newParser() throws IOException;
+
+    // Consume a parsed batch; called on the thread of run(), in file order
+    abstract void commit(Batch batch) throws Exception;
+
+    void run() throws Exception {
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread(new Runnable() {
+            public void run() {
+                try {
+                    readFile();
+                } catch (InterruptedException ex) {
+                    // Stopped by run()
+                } catch (Exception ex) {
+                    fail(ex);
+                }
+            }
+        }, "csvdiff-reader"));
+        for (int i = 0; i < parsers; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        parseBatches();
+                    } catch (InterruptedException ex) {
+                        // Stopped by run()
+                    } catch (Exception ex) {
+                        fail(ex);
+                    }
+                }
+            }, "csvdiff-parser-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        try {
+            for (int seq = 0; ; seq++) {
+                Batch batch = nextParsed(seq);
+                if (batch == null) {
+                    break;
+                }
+                commit(batch);
+                free.put(batch);
+            }
+        } finally {
+            for (Thread t : threads) {
+                t.interrupt();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+    }
+
+    // The parsed batch seq, or null after the last batch
+    private Batch nextParsed(int seq) throws Exception {
+        int slot = seq % parsed.length;
+        synchronized (lock) {
+            while (parsed[slot] == null) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (batchCount >= 0 && seq >= batchCount) {
+                    return null;
+                }
+                lock.wait();
+            }
+            Batch batch = parsed[slot];
+            parsed[slot] = null;
+            return batch;
+        }
+    }
+
+    private void fail(Exception ex) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = ex;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // The reader stage
+    private void readFile() throws Exception {
+        int seq = 0;
+        LineReader reader = new LineReader(file, listener);
+        try {
+            Batch batch = free.take();
+            batch.clear(seq++);
+            boolean isFirstLine = true;
+            while (reader.nextLine()) {
+                if (lineIndex != null) {
+                    lineIndex.add(reader.lineNumber(), reader.lineOffset());
+                }
+                // Skip the header line
+                if (isFirstLine) {
+                    isFirstLine = false;
+                    continue;
+                }
+                int length = reader.lineEnd() - reader.lineStart();
+                if (batch.isFull(length)) {
+                    read.put(batch);
+                    batch = free.take();
+                    batch.clear(seq++);
+                }
+                batch.add(reader.buffer(), reader.lineStart(), reader.lineEnd(), reader.lineNumber(), reader.lineOffset());
+            }
+            if (batch.count > 0) {
+                read.put(batch);
+            } else {
+                seq--;
+                free.put(batch);
+            }
+        } finally {
+            reader.close();
+        }
+        synchronized (lock) {
+            batchCount = seq;
+            lock.notifyAll();
+        }
+        for (int i = 0; i < parsers; i++) {
+            read.put(END);
+        }
+    }
+
+    // A parser stage
+    private void parseBatches() throws Exception {
+        Parser parser = newParser();
+        try {
+            while (true) {
+                Batch batch = read.take();
+                if (batch == END) {
+                    return;
+                }
+                parser.parse(batch);
+                synchronized (lock) {
+                    parsed[batch.seq % parsed.length] = batch;
+                    lock.notifyAll();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * =============================================================================================
+ * Name: ResultListModel.java
+ * Desc: The ListModel of the result list of CompareFiles, on top of a ResultStore. Nothing is
+ *       copied into the model: the JList asks for the text of the rows it paints, and only those
+ *       are formatted. Give the JList a prototype cell value (see PROTOTYPE), or it formats every
+ *       row once to measure them.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import javax.swing.AbstractListModel;
+
+class ResultListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    static final String PROTOTYPE = String.format ("KEY: %-30s => Mismatched columns = %s", "(key)", "column:1,column:2");
+
+    private final ResultStore store;
+    private int size;
+
+    ResultListModel (ResultStore store) {
+        this.store = store;
+        this.size = store.size();
+    }
+
+    ResultStore getStore() { return store; }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getElementAt(int index) {
+        return store.message(index);
+    }
+
+    // Show the results that were added to the store since the last call; on the event thread only
+    void refresh() {
+        int newSize = store.size();
+        if (newSize > size) {
+            int from = size;
+            size = newSize;
+            fireIntervalAdded(this, from, newSize - 1);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * =============================================================================================
+ * Name: ResultStore.java
+ * Desc: The comparison results of DiffEngine, one record per result instead of one formatted
+ *       String each: the key (its columns joined as PackedKey.text has them), the line numbers
+ *       in File 1 and File 2 (-1 where the key is not in that file) and, for a mismatch, a
+ *       BitSet of the header positions of the columns that differ. The records are kept in
+ *       parallel arrays in the order they were reported. The first result of each key is
+ *       indexed as it is added, so that a key can be looked up while the comparison still runs
+ *       (see indexOf).
+ *       The text of a result, as the comparison has always printed it, is only made when it is
+ *       asked for (see ResultListModel, which asks for the visible rows of the list only).
+ *       This is the DiffSink a DiffEngine reports to unless it is given another one.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+class ResultStore implements DiffSink {
+    private final DiffEngine engine;
+    private String[] keys = new String[1024];
+    private int[] leftLines = new int[1024];
+    private int[] rightLines = new int[1024];
+    private BitSet[] mismatches = new BitSet[1024];   // null unless the key is in both files
+    private final HashMap<String, Integer> firstResult = new HashMap<String, Integer>();
+    private int size;
+
+    ResultStore (DiffEngine engine) {
+        this.engine = engine;
+    }
+
+    public void start(DiffEngine engine) {
+    }
+
+    public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) {
+        add(PackedKey.text(key), leftLine, rightLine, columns);
+    }
+
+    public void leftOnly(String[] key, int leftLine) {
+        add(PackedKey.text(key), leftLine, -1, null);
+    }
+
+    public void rightOnly(String[] key, int rightLine) {
+        add(PackedKey.text(key), -1, rightLine, null);
+    }
+
+    public void finish() {
+    }
+
+    synchronized void add(String key, int leftLine, int rightLine, BitSet columns) {
+        if (size == keys.length) {
+            int n = size * 2;
+            keys = Arrays.copyOf(keys, n);
+            leftLines = Arrays.copyOf(leftLines, n);
+            rightLines = Arrays.copyOf(rightLines, n);
+            mismatches = Arrays.copyOf(mismatches, n);
+        }
+        keys[size] = key;
+        leftLines[size] = leftLine;
+        rightLines[size] = rightLine;
+        mismatches[size] = columns;
+        if (! firstResult.containsKey(key)) {
+            firstResult.put(key, size);
+        }
+        size++;
+    }
+
+    synchronized int size() { return size; }
+    synchronized String key(int i) { return keys[i]; }
+    synchronized int leftLine(int i) { return leftLines[i]; }
+    synchronized int rightLine(int i) { return rightLines[i]; }
+    synchronized BitSet mismatchedColumns(int i) { return mismatches[i]; }
+
+    // The index of the first result of a key (its columns joined as PackedKey.text has them),
+    // or -1 if the key has no result
+    synchronized int indexOf(String key) {
+        Integer i = firstResult.get(key);
+        return i == null ? -1 : i;
+    }
+
+    // The text of result i
+    String message(int i) {
+        String key;
+        int left, right;
+        BitSet columns;
+        synchronized (this) {
+            key = keys[i];
+            left = leftLines[i];
+            right = rightLines[i];
+            columns = mismatches[i];
+        }
+        return engine.formatResult(key, left, right, columns);
+    }
+}
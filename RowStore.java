@@ -0,0 +1,746 @@
+/*
+ * =============================================================================================
+ * Name: RowStore.java
+ * Desc: A compact in-memory store for the rows of File 1, used by DiffEngine in place of a
+ *       Hashtable<String, String[]>.
+ *       Each row is packed as UTF-8 bytes into shared byte arena pages:
+ *           [varint key length][key bytes]([varint value header][value bytes])...
+ *       where the key bytes are those of its PackedKey. Of the other columns only the compared
+ *       ones are stored; exclude columns take no space. A value header is the length of the
+ *       value bytes shifted left by one, or, for a value that is in the ValueDictionary of its
+ *       column, the code of the value shifted left by one with the low bit set and no bytes
+ *       after it. Every column starts out with a dictionary, which closes when the column
+ *       turns out to have too many distinct values; a column of a few hundred countries then
+ *       takes a byte or two per row, and its values decode to the same few hundred Strings.
+ *       A row is addressed by a long (page << 32 | offset), and its line number is kept as an
+ *       int. The first page starts at MIN_PAGE_SIZE and doubles in place, which leaves the
+ *       addresses in it as they are, up to PAGE_SIZE, so that a store of a few rows (a bucket,
+ *       a small file) does not take a whole page.
+ *       Keys are found through open-addressing (linear probing) tables of row indexes: keys that
+ *       are longs (numeric ids, see PackedKey) in a table that holds the longs themselves, so
+ *       that neither adding nor finding them touches the arena, and all other keys in a table
+ *       that compares their bytes with the ones in the arena.
+ *       Rows are never removed. Instead a row is marked as matched once File 2 has a row with
+ *       the same key, so that the rows found only in File 1 are the unmatched ones. When File 1
+ *       has a key more than once, the last row wins and the earlier ones are marked as matched.
+ *       A matched row remembers the line of File 2 that matched it, so that the store can later
+ *       tell where a key is in both files.
+ *       Every row also keeps a 64-bit fingerprint of its compared values, so that a line of
+ *       File 2 that is identical to its row can be recognized from its raw bytes, without
+ *       splitting it into Strings (see Probe.findIdentical).
+ *       A store can also be an index only, without the values: then a row is its key, its
+ *       fingerprint and the byte offset of its line, and the values have to be read back from
+ *       File 1 when its line of File 2 is not identical.
+ *       Once a comparison is over, keyIndex() boils a store down to what finding a key and its
+ *       lines takes: the keys, line numbers and matches, without values or fingerprints.
+ *       A loaded store can be written to a file and read back (see BaselineIndex): the arena
+ *       pages and the per-row arrays are copied in bulk from memory-mapped sections of the
+ *       file, so nothing is tokenized or hashed again.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class RowStore {
+    static final int PAGE_SIZE = 1 << 22;
+    static final int MIN_PAGE_SIZE = 1 << 12;
+    static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private final int valueCount;
+    private final boolean keepValues;
+    private final ValueDictionary[] dictionaries;   // by compared column; none in an index
+    private Charset keyCharset = StandardCharsets.UTF_8;   // of the file, for key()
+
+    // Arena pages
+    private ArrayList<byte[]> pages = new ArrayList<byte[]>();
+    private byte[] page;
+    private int pageIndex = -1;
+    private int pagePos;
+    private long arenaBytes;
+
+    // Per-row arrays
+    private long[] rowAddr = new long[1024];
+    private int[] rowLine = new int[1024];
+    private int[] rowHash = new int[1024];
+    private long[] rowPrint = new long[1024];
+    private long[] rowOffset;                        // in an index only
+    private int[] rowMatchLine = new int[1024];
+    private long[] matched = new long[1024 / 64];
+    private int rowCount;
+
+    // Open-addressing table of (row index + 1) for the keys that are not longs; 0 marks an
+    // empty slot
+    private int[] slots = new int[2048];
+    private int mask = slots.length - 1;
+    private int keyCount;
+
+    // Open-addressing table of the keys that are longs, with their (row index + 1)
+    private long[] longKeys = new long[2048];
+    private int[] longSlots = new int[2048];
+    private int longMask = longSlots.length - 1;
+    private int longKeyCount;
+
+    // Scratch space for encoding one row or key
+    private final Probe encoder = new Probe();
+
+    RowStore (int valueCount) {
+        this(valueCount, true);
+    }
+
+    // keepValues false makes an index only: the values are fingerprinted, not stored
+    RowStore (int valueCount, boolean keepValues) {
+        this.valueCount = valueCount;
+        this.keepValues = keepValues;
+        rowOffset = new long[keepValues ? 0 : 1024];
+        dictionaries = new ValueDictionary[keepValues ? valueCount : 0];
+        for (int i = 0; i < dictionaries.length; i++) {
+            dictionaries[i] = new ValueDictionary();
+        }
+    }
+
+    void add(PackedKey key, String[] values, int lineNumber) {
+        add(key, values, lineNumber, -1);
+    }
+
+    // Add one row. values has one entry per compared column; null is stored as "".
+    // offset is the byte offset of the line in its file, which only an index keeps.
+    void add(PackedKey key, String[] values, int lineNumber, long offset) {
+        encoder.ensure(5 + key.length);
+        int len = writeVarint(encoder.buf, 0, key.length);
+        System.arraycopy(key.bytes, 0, encoder.buf, len, key.length);
+        len += key.length;
+        int keyEnd = len;
+        long print = FINGERPRINT_SEED;
+        for (int i = 0; i < valueCount; i++) {
+            String value = values[i] == null ? "" : values[i];
+            int start = len;
+            len = encoder.put(value, len);
+            int from = len - (readVarint(encoder.buf, start) >>> 1);
+            print = fingerprint(print, encoder.buf, from, len);
+            if (keepValues && from < len) {
+                int code = dictionaries[i].add(encoder.buf, from, len, value);
+                if (code != -1) {
+                    len = writeVarint(encoder.buf, start, (code << 1) | 1);
+                }
+            }
+        }
+        byte[] scratch = encoder.buf;
+
+        if (rowCount == rowAddr.length) {
+            growRows();
+        }
+        int row = rowCount++;
+        rowAddr[row] = append(scratch, 0, keepValues ? len : keyEnd);
+        rowLine[row] = lineNumber;
+        rowHash[row] = key.hash;
+        rowPrint[row] = print;
+        if (! keepValues) {
+            rowOffset[row] = offset;
+        }
+
+        // Insert into the key table, replacing an earlier row with the same key
+        if (key.isLong) {
+            addLong(key.value, key.hash, row);
+            return;
+        }
+        int slot = key.hash & mask;
+        while (slots[slot] != 0) {
+            int other = slots[slot] - 1;
+            if (rowHash[other] == key.hash && keyEquals(other, key.bytes, 0, key.length)) {
+                setMatched(other);
+                slots[slot] = row + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+        if (++keyCount * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void addLong(long value, int hash, int row) {
+        int slot = hash & longMask;
+        while (longSlots[slot] != 0) {
+            if (longKeys[slot] == value) {
+                setMatched(longSlots[slot] - 1);
+                longSlots[slot] = row + 1;
+                return;
+            }
+            slot = (slot + 1) & longMask;
+        }
+        longKeys[slot] = value;
+        longSlots[slot] = row + 1;
+        if (++longKeyCount * 2 > longSlots.length) {
+            rehashLongs();
+        }
+    }
+
+    // The index of the row with this key, or -1 if there is none. Safe to call from any number
+    // of threads once loading is done.
+    int find(PackedKey key) {
+        if (key.isLong) {
+            int slot = key.hash & longMask;
+            while (longSlots[slot] != 0) {
+                if (longKeys[slot] == key.value) {
+                    return longSlots[slot] - 1;
+                }
+                slot = (slot + 1) & longMask;
+            }
+            return -1;
+        }
+        return lookup(key.hash, key.bytes, 0, key.length);
+    }
+
+    // A lookup handle with its own scratch space. Once loading is done, any number of threads
+    // can look up keys and read values concurrently, each through its own Probe.
+    class Probe {
+        private byte[] buf = new byte[256];
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private final PackedKey key = new PackedKey();
+        private final int[] codes = new int[valueCount];
+
+        Probe () {
+            Arrays.fill(codes, -1);
+        }
+
+        // Decode the compared values of a row into out, as RowStore.values does, and keep their
+        // dictionary codes for code()
+        void values(int row, String[] out) {
+            RowStore.this.values(row, out, codes);
+        }
+
+        // The dictionary code of value i of the row last decoded by values(), or -1 if it has
+        // none (or no row was decoded)
+        int code(int i) {
+            return codes[i];
+        }
+
+        // The code of value in the dictionary of compared column i, or -1 if it is not in it.
+        // Two values of a column are the same exactly when they have the same code, so a value
+        // of File 2 can be compared with a value of code(i) without comparing the Strings.
+        int lookup(int i, String value) {
+            int end = put(value, 0);
+            return dictionaries[i].find(buf, end - (readVarint(buf, 0) >>> 1), end);
+        }
+
+        // The row whose key and compared values are byte for byte those of the comma separated
+        // line b[start, end), or -1 if there is none. fieldCount is the number of header columns,
+        // keyCols and cmpCols the positions of the key and compared columns. A line with fewer
+        // fields than the header, or with a quoted field (whose bytes are not its value), is
+        // never identical, it has to be tokenized.
+        int findIdentical(byte[] b, int start, int end, int fieldCount, int[] keyCols, int[] cmpCols) {
+            CsvTokenizer t = tokenizer;
+            if (t.split(b, start, end, fieldCount) < fieldCount || t.anyQuoted()) {
+                return -1;
+            }
+
+            key.set(t, b, fieldCount, keyCols);
+            int row = find(key);
+            if (row == -1) {
+                return -1;
+            }
+
+            // The fingerprint rules out nearly every changed row; the bytes confirm the rest
+            long print = FINGERPRINT_SEED;
+            for (int c : cmpCols) {
+                print = fingerprint(print, b, t.fieldStart(c), t.fieldEnd(c));
+            }
+            if (print != rowPrint[row]) {
+                return -1;
+            }
+            if (! keepValues) {
+                return row;
+            }
+            byte[] p = pages.get((int) (rowAddr[row] >>> 32));
+            int pos = (int) rowAddr[row];
+            pos += varintSize(key.length) + key.length;
+            for (int v = 0; v < cmpCols.length; v++) {
+                int header = readVarint(p, pos);
+                pos += varintSize(header);
+                int from = t.fieldStart(cmpCols[v]);
+                int to = t.fieldEnd(cmpCols[v]);
+                if ((header & 1) != 0) {
+                    if (! dictionaries[v].matches(header >>> 1, b, from, to)) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (header >>> 1 != to - from) {
+                    return -1;
+                }
+                for (int i = from; i < to; i++) {
+                    if (p[pos++] != b[i]) {
+                        return -1;
+                    }
+                }
+            }
+            return row;
+        }
+
+        // Append the value header (see above) and UTF-8 bytes of s to buf at pos; returns the
+        // new end
+        int put(String s, int pos) {
+            int n = s.length();
+            int i = 0;
+            while (i < n && s.charAt(i) < 0x80) {
+                i++;
+            }
+            if (i == n) {
+                // ASCII fast path
+                ensure(pos + 5 + n);
+                pos = writeVarint(buf, pos, n << 1);
+                for (i = 0; i < n; i++) {
+                    buf[pos++] = (byte) s.charAt(i);
+                }
+                return pos;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            ensure(pos + 5 + b.length);
+            pos = writeVarint(buf, pos, b.length << 1);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            return pos + b.length;
+        }
+
+        private void ensure(int n) {
+            if (buf.length < n) {
+                buf = Arrays.copyOf(buf, Math.max(n, buf.length * 2));
+            }
+        }
+    }
+
+    // Mark a row as matched by a line of File 2. Returns false if it was already matched.
+    boolean markMatched(int row, int matchLine) {
+        if (isMatched(row)) {
+            return false;
+        }
+        setMatched(row);
+        rowMatchLine[row] = matchLine;
+        return true;
+    }
+
+    boolean isMatched(int row) {
+        return (matched[row >>> 6] & (1L << row)) != 0;
+    }
+
+    private void setMatched(int row) {
+        matched[row >>> 6] |= 1L << row;
+    }
+
+    int size() { return rowCount; }
+    int lineNumber(int row) { return rowLine[row]; }
+    long offset(int row) { return rowOffset[row]; }      // in an index only
+    int matchLine(int row) { return rowMatchLine[row]; }   // 0 if not matched by File 2
+    boolean hasValues() { return keepValues; }
+
+    // The charset of the file the keys are from, which key() decodes them from
+    void setKeyCharset(Charset cs) {
+        keyCharset = cs;
+    }
+
+    // The key columns of a row, as PackedKey.columns has them
+    String[] key(int row) {
+        byte[] p = pages.get((int) (rowAddr[row] >>> 32));
+        int pos = (int) rowAddr[row];
+        int len = readVarint(p, pos);
+        pos += varintSize(len);
+        return PackedKey.columns(p, pos, pos + len, keyCharset);
+    }
+
+    // Decode the compared values of a row into out; only for a store that keeps the values
+    void values(int row, String[] out) {
+        values(row, out, null);
+    }
+
+    // values(row, out), with the dictionary code of each value in codes (if not null), or -1
+    // for a value that is not in the dictionary of its column
+    private void values(int row, String[] out, int[] codes) {
+        byte[] p = pages.get((int) (rowAddr[row] >>> 32));
+        int pos = (int) rowAddr[row];
+        int len = readVarint(p, pos);
+        pos += varintSize(len) + len;
+        for (int i = 0; i < valueCount; i++) {
+            int header = readVarint(p, pos);
+            pos += varintSize(header);
+            if (codes != null) {
+                codes[i] = (header & 1) != 0 ? header >>> 1 : -1;
+            }
+            if ((header & 1) != 0) {
+                out[i] = dictionaries[i].value(header >>> 1);
+                continue;
+            }
+            len = header >>> 1;
+            out[i] = len == 0 ? "" : new String(p, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+        }
+    }
+
+    // A store of the keys, line numbers and matches of this one, for find(), key(),
+    // lineNumber() and matchLine() once the comparison is over (see DiffEngine.keyLines). Its
+    // arena holds only the keys, and it has no values, fingerprints or line offsets. It takes
+    // over the key tables and per-row arrays of this store, which is not to be used any more.
+    RowStore keyIndex() {
+        RowStore index = new RowStore(0, false);
+        index.keyCharset = keyCharset;
+        long[] addr = new long[Math.max(1, rowCount)];
+        for (int row = 0; row < rowCount; row++) {
+            byte[] p = pages.get((int) (rowAddr[row] >>> 32));
+            int pos = (int) rowAddr[row];
+            int len = readVarint(p, pos);
+            addr[row] = index.append(p, pos, varintSize(len) + len);
+        }
+        index.rowAddr = addr;
+        index.rowLine = rowLine;
+        index.rowHash = rowHash;
+        index.rowPrint = new long[0];
+        index.rowOffset = new long[0];
+        index.rowMatchLine = rowMatchLine;
+        index.matched = matched;
+        index.rowCount = rowCount;
+        index.slots = slots;
+        index.mask = mask;
+        index.keyCount = keyCount;
+        index.longKeys = longKeys;
+        index.longSlots = longSlots;
+        index.longMask = longMask;
+        index.longKeyCount = longKeyCount;
+        return index;
+    }
+
+    // Write the store to out, for read(). Meant for a store as loadData leaves it, before any
+    // line of File 2 matched it (the rows replaced by a later row with the same key are matched).
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(valueCount);
+        out.writeBoolean(keepValues);
+        out.writeInt(rowCount);
+        out.writeInt(slots.length);
+        out.writeInt(keyCount);
+        out.writeInt(longSlots.length);
+        out.writeInt(longKeyCount);
+        out.writeInt(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            out.writeInt(i == pageIndex ? pagePos : pages.get(i).length);
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            out.write(pages.get(i), 0, i == pageIndex ? pagePos : pages.get(i).length);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            out.writeLong(rowAddr[i]);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            out.writeInt(rowLine[i]);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            out.writeInt(rowHash[i]);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            out.writeLong(rowPrint[i]);
+        }
+        if (! keepValues) {
+            for (int i = 0; i < rowCount; i++) {
+                out.writeLong(rowOffset[i]);
+            }
+        }
+        for (int i = 0; i < (rowCount + 63) >>> 6; i++) {
+            out.writeLong(matched[i]);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            out.writeInt(slots[i]);
+        }
+        for (int i = 0; i < longSlots.length; i++) {
+            out.writeLong(longKeys[i]);
+        }
+        for (int i = 0; i < longSlots.length; i++) {
+            out.writeInt(longSlots[i]);
+        }
+        for (ValueDictionary d : dictionaries) {
+            d.write(out);
+        }
+    }
+
+    // A store written by write() at offset pos of the file of channel, or null if the file ends
+    // before the store does
+    static RowStore read(FileChannel channel, long pos) throws IOException {
+        long size = channel.size();
+        if (pos + 29 > size) {
+            return null;
+        }
+        ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, pos, 29);
+        int valueCount = head.getInt();
+        boolean keepValues = head.get() != 0;
+        int rowCount = head.getInt();
+        int slotCount = head.getInt();
+        int keyCount = head.getInt();
+        int longSlotCount = head.getInt();
+        int longKeyCount = head.getInt();
+        int pageCount = head.getInt();
+        pos += 29;
+        if (rowCount < 0 || keyCount < 0 || longKeyCount < 0 || keyCount + longKeyCount > rowCount
+                || slotCount <= keyCount || Integer.bitCount(slotCount) != 1
+                || longSlotCount <= longKeyCount || Integer.bitCount(longSlotCount) != 1
+                || pageCount < 0 || pos + pageCount * 4L > size) {
+            return null;
+        }
+        int[] pageLengths = new int[pageCount];
+        long expected = pos + pageCount * 4L;
+        map(channel, pos, pageCount * 4L).asIntBuffer().get(pageLengths);
+        pos += pageCount * 4L;
+        for (int length : pageLengths) {
+            expected += length;
+        }
+        // The dictionaries, whose size is in them, follow
+        expected += rowCount * (keepValues ? 24L : 32L) + ((rowCount + 63) >>> 6) * 8L + slotCount * 4L + longSlotCount * 12L;
+        if (expected > size) {
+            return null;
+        }
+
+        RowStore store = new RowStore(valueCount, keepValues);
+        for (int i = 0; i < pageCount; i++) {
+            byte[] p = new byte[pageLengths[i]];
+            map(channel, pos, pageLengths[i]).get(p, 0, pageLengths[i]);
+            pos += pageLengths[i];
+            store.pages.add(p);
+            store.arenaBytes += p.length;
+        }
+        store.pageIndex = pageCount - 1;
+        store.page = pageCount == 0 ? null : store.pages.get(pageCount - 1);
+        store.pagePos = pageCount == 0 ? 0 : pageLengths[pageCount - 1];
+
+        int capacity = Math.max(1024, (rowCount + 63) & ~63);
+        store.rowAddr = new long[capacity];
+        store.rowLine = new int[capacity];
+        store.rowHash = new int[capacity];
+        store.rowPrint = new long[capacity];
+        store.rowOffset = new long[keepValues ? 0 : capacity];
+        store.rowMatchLine = new int[capacity];
+        store.matched = new long[capacity / 64];
+        map(channel, pos, rowCount * 8L).asLongBuffer().get(store.rowAddr, 0, rowCount);
+        pos += rowCount * 8L;
+        map(channel, pos, rowCount * 4L).asIntBuffer().get(store.rowLine, 0, rowCount);
+        pos += rowCount * 4L;
+        map(channel, pos, rowCount * 4L).asIntBuffer().get(store.rowHash, 0, rowCount);
+        pos += rowCount * 4L;
+        map(channel, pos, rowCount * 8L).asLongBuffer().get(store.rowPrint, 0, rowCount);
+        pos += rowCount * 8L;
+        if (! keepValues) {
+            map(channel, pos, rowCount * 8L).asLongBuffer().get(store.rowOffset, 0, rowCount);
+            pos += rowCount * 8L;
+        }
+        int words = (rowCount + 63) >>> 6;
+        map(channel, pos, words * 8L).asLongBuffer().get(store.matched, 0, words);
+        pos += words * 8L;
+        store.slots = new int[slotCount];
+        store.mask = slotCount - 1;
+        map(channel, pos, slotCount * 4L).asIntBuffer().get(store.slots);
+        pos += slotCount * 4L;
+        store.keyCount = keyCount;
+        store.longKeys = new long[longSlotCount];
+        store.longSlots = new int[longSlotCount];
+        store.longMask = longSlotCount - 1;
+        map(channel, pos, longSlotCount * 8L).asLongBuffer().get(store.longKeys);
+        pos += longSlotCount * 8L;
+        map(channel, pos, longSlotCount * 4L).asIntBuffer().get(store.longSlots);
+        pos += longSlotCount * 4L;
+        store.longKeyCount = longKeyCount;
+        ByteBuffer rest = map(channel, pos, size - pos);
+        for (int i = 0; i < store.dictionaries.length; i++) {
+            store.dictionaries[i] = ValueDictionary.read(rest);
+            if (store.dictionaries[i] == null) {
+                return null;
+            }
+        }
+        if (rest.hasRemaining()) {
+            return null;
+        }
+        store.rowCount = rowCount;
+        return store;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long pos, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+    }
+
+    // Approximate heap used by the store, in bytes
+    long memoryBytes() {
+        return arenaBytes + rowAddr.length * 8L + rowLine.length * 4L + rowHash.length * 4L
+               + rowPrint.length * 8L + rowOffset.length * 8L + rowMatchLine.length * 4L
+               + matched.length * 8L + slots.length * 4L + longSlots.length * 12L + dictionaryBytes();
+    }
+
+    private long dictionaryBytes() {
+        long n = 0;
+        for (ValueDictionary d : dictionaries) {
+            n += d.memoryBytes();
+        }
+        return n;
+    }
+
+    // The row whose key is key[start, end) with this hash, or -1
+    private int lookup(int hash, byte[] key, int start, int end) {
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (rowHash[row] == hash && keyEquals(row, key, start, end)) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int row, byte[] key, int start, int end) {
+        byte[] p = pages.get((int) (rowAddr[row] >>> 32));
+        int pos = (int) rowAddr[row];
+        int len = readVarint(p, pos);
+        if (len != end - start) {
+            return false;
+        }
+        pos += varintSize(len);
+        for (int i = start; i < end; i++) {
+            if (p[pos++] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copy the len bytes of src at from to the arena and return their address
+    private long append(byte[] src, int from, int len) {
+        if (page == null || page.length - pagePos < len) {
+            newPage(len);
+        }
+        System.arraycopy(src, from, page, pagePos, len);
+        long addr = ((long) pageIndex << 32) | pagePos;
+        pagePos += len;
+        return addr;
+    }
+
+    // Make room for len more bytes: double the last page if it is smaller than PAGE_SIZE (the
+    // first page, or the last one read back by read()), else start a page of PAGE_SIZE
+    private void newPage(int len) {
+        int size = page == null ? MIN_PAGE_SIZE : page.length;
+        while (size < PAGE_SIZE && size - pagePos < len) {
+            size = Math.min(size * 2, PAGE_SIZE);
+        }
+        if (page != null && size > page.length && size - pagePos >= len) {
+            arenaBytes += size - page.length;
+            page = Arrays.copyOf(page, size);
+            pages.set(pageIndex, page);
+            return;
+        }
+        page = new byte[Math.max(page == null ? size : PAGE_SIZE, len)];
+        pages.add(page);
+        pageIndex++;
+        pagePos = 0;
+        arenaBytes += page.length;
+    }
+
+    private void growRows() {
+        int n = rowAddr.length * 2;
+        rowAddr = Arrays.copyOf(rowAddr, n);
+        rowLine = Arrays.copyOf(rowLine, n);
+        rowHash = Arrays.copyOf(rowHash, n);
+        rowPrint = Arrays.copyOf(rowPrint, n);
+        if (! keepValues) {
+            rowOffset = Arrays.copyOf(rowOffset, n);
+        }
+        rowMatchLine = Arrays.copyOf(rowMatchLine, n);
+        matched = Arrays.copyOf(matched, n / 64);
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int newMask = newSlots.length - 1;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+                int slot = rowHash[slots[i] - 1] & newMask;
+                while (newSlots[slot] != 0) {
+                    slot = (slot + 1) & newMask;
+                }
+                newSlots[slot] = slots[i];
+            }
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    private void rehashLongs() {
+        long[] newKeys = new long[longKeys.length * 2];
+        int[] newSlots = new int[longSlots.length * 2];
+        int newMask = newSlots.length - 1;
+        for (int i = 0; i < longSlots.length; i++) {
+            if (longSlots[i] != 0) {
+                int slot = rowHash[longSlots[i] - 1] & newMask;
+                while (newSlots[slot] != 0) {
+                    slot = (slot + 1) & newMask;
+                }
+                newKeys[slot] = longKeys[i];
+                newSlots[slot] = longSlots[i];
+            }
+        }
+        longKeys = newKeys;
+        longSlots = newSlots;
+        longMask = newMask;
+    }
+
+    static int writeVarint(byte[] b, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            b[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        b[pos++] = (byte) v;
+        return pos;
+    }
+
+    static int readVarint(byte[] b, int pos) {
+        int v = 0;
+        int shift = 0;
+        byte c;
+        do {
+            c = b[pos++];
+            v |= (c & 0x7F) << shift;
+            shift += 7;
+        } while (c < 0);
+        return v;
+    }
+
+    static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    // FNV-1a over the bytes of one value, followed by a 0xFF byte (which UTF-8 never uses) to
+    // keep the values apart
+    static long fingerprint(long h, byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            h = (h ^ (b[i] & 0xFF)) * FINGERPRINT_PRIME;
+        }
+        return (h ^ 0xFF) * FINGERPRINT_PRIME;
+    }
+
+    static int hash(byte[] b, int start, int end) {
+        int h = 0x9747b28c;
+        for (int i = start; i < end; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
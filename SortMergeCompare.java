@@ -0,0 +1,286 @@
+/*
+ * =============================================================================================
+ * Name: SortMergeCompare.java
+ * Desc: The out-of-core comparison of DiffEngine, for files larger than the heap. Both files
+ *       are sorted by key with an ExternalSorter, in runs of bounded size on disk, and the two
+ *       sorted streams are merge-joined. The sort and join key is the PackedKey bytes of a line,
+ *       so that two keys are the same here exactly when they are in the hash comparison:
+ *         - when File 1 has a key more than once, its last line wins (as in loadData)
+ *         - the first line of File 2 with a key is compared with File 1, any later line with
+ *           the same key is found only in File 2 (as in compareData)
+ *       The results are sorted once more, into the order compareData reports them in (File 2
+ *       order, then the rows found only in File 1 in File 1 order), before they are reported.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+class SortMergeCompare {
+    // The two file sorters and the result sorter hold their data at the same time, so they
+    // share one memory budget: 2/5 of it for each file, 1/5 for the results
+    static final int BUDGET_SHARES = 5;
+    static final int FILE_SHARES = 2;
+
+    private final DiffEngine engine;
+    private final long memoryBudget;
+    private final File tempDir;
+
+    // One data line: its key (PackedKey bytes), line number and the values of the compared
+    // columns
+    static class Row {
+        byte[] key;
+        int line;
+        String[] values;
+        Row (byte[] key, int line, String[] values) {
+            this.key = key;
+            this.line = line;
+            this.values = values;
+        }
+    }
+
+    // One comparison result; phase 0 results are reported in File 2 order before the phase 1
+    // results (found only in File 1), which are reported in File 1 order
+    static class Result {
+        int phase;
+        int line;
+        int leftLine;
+        int rightLine;
+        String[] key;             // the key columns
+        BitSet mismatches;
+        Result (int phase, int line, int leftLine, int rightLine, String[] key, BitSet mismatches) {
+            this.phase = phase;
+            this.line = line;
+            this.leftLine = leftLine;
+            this.rightLine = rightLine;
+            this.key = key;
+            this.mismatches = mismatches;
+        }
+    }
+
+    static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+        public int compare(Row a, Row b) {
+            int c = PackedKey.compare(a.key, a.key.length, b.key, b.key.length);
+            return c != 0 ? c : (a.line < b.line ? -1 : (a.line == b.line ? 0 : 1));
+        }
+    };
+
+    static final Comparator<Result> RESULT_ORDER = new Comparator<Result>() {
+        public int compare(Result a, Result b) {
+            if (a.phase != b.phase) {
+                return a.phase - b.phase;
+            }
+            return a.line < b.line ? -1 : (a.line == b.line ? 0 : 1);
+        }
+    };
+
+    class RowCodec implements ExternalSorter.Codec<Row> {
+        private final int valueCount;
+        RowCodec (int valueCount) {
+            this.valueCount = valueCount;
+        }
+        public void write(DataOutputStream out, Row row) throws IOException {
+            // Spilling a run takes a while; a cancelled comparison stops there too
+            engine.checkCancelled();
+            out.writeInt(row.line);
+            out.writeInt(row.key.length);
+            out.write(row.key);
+            for (int i = 0; i < valueCount; i++) {
+                ExternalSorter.writeString(out, row.values[i]);
+            }
+        }
+        public Row read(DataInputStream in) throws IOException {
+            int line = ExternalSorter.readIntOrEnd(in);
+            if (line < 0) {
+                return null;
+            }
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            String[] values = new String[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = ExternalSorter.readString(in);
+            }
+            return new Row(key, line, values);
+        }
+        public long estimateSize(Row row) {
+            long size = 48 + 16 + 4L * valueCount + 16 + row.key.length;
+            for (int i = 0; i < valueCount; i++) {
+                size += ExternalSorter.estimateSize(row.values[i]);
+            }
+            return size;
+        }
+    }
+
+    static class ResultCodec implements ExternalSorter.Codec<Result> {
+        public void write(DataOutputStream out, Result r) throws IOException {
+            out.writeInt(r.phase);
+            out.writeInt(r.line);
+            out.writeInt(r.leftLine);
+            out.writeInt(r.rightLine);
+            ExternalSorter.writeStrings(out, r.key);
+            // The mismatched columns as BitSet words, or -1 for none
+            if (r.mismatches == null) {
+                out.writeInt(-1);
+            } else {
+                long[] words = r.mismatches.toLongArray();
+                out.writeInt(words.length);
+                for (long w : words) {
+                    out.writeLong(w);
+                }
+            }
+        }
+        public Result read(DataInputStream in) throws IOException {
+            int phase = ExternalSorter.readIntOrEnd(in);
+            if (phase < 0) {
+                return null;
+            }
+            int line = in.readInt();
+            int leftLine = in.readInt();
+            int rightLine = in.readInt();
+            String[] key = ExternalSorter.readStrings(in);
+            BitSet mismatches = null;
+            int n = in.readInt();
+            if (n >= 0) {
+                long[] words = new long[n];
+                for (int i = 0; i < n; i++) {
+                    words[i] = in.readLong();
+                }
+                mismatches = BitSet.valueOf(words);
+            }
+            return new Result(phase, line, leftLine, rightLine, key, mismatches);
+        }
+        public long estimateSize(Result r) {
+            return 48 + ExternalSorter.estimateSize(r.key) + (r.mismatches == null ? 0 : 40 + r.mismatches.size() / 8);
+        }
+    }
+
+    SortMergeCompare (DiffEngine engine, long memoryBudget, File tempDir) {
+        this.engine = engine;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    void run() throws Exception {
+        RowCodec codec = new RowCodec(engine.cmpCols.length);
+        ExternalSorter.Reader<Row> left = sortFile(engine.file1, codec);
+        ExternalSorter.Reader<Row> right = null;
+        ExternalSorter<Result> results = null;
+        ExternalSorter.Reader<Result> sortedResults = null;
+        try {
+            right = sortFile(engine.file2, codec);
+            results = new ExternalSorter<Result>(RESULT_ORDER, new ResultCodec(), memoryBudget / BUDGET_SHARES, tempDir);
+            mergeJoin(left, right, results);
+            left.close();
+            left = null;
+            right.close();
+            right = null;
+
+            sortedResults = results.sort();
+            Result r;
+            while ((r = sortedResults.next()) != null) {
+                engine.report(r.key, r.leftLine, r.rightLine, r.mismatches);
+            }
+        } finally {
+            if (left != null) {
+                left.close();
+            }
+            if (right != null) {
+                right.close();
+            }
+            if (sortedResults != null) {
+                sortedResults.close();
+            } else if (results != null) {
+                results.discard();
+            }
+        }
+    }
+
+    // Read the data lines of a file into an ExternalSorter and sort them by key. The sort stops
+    // as soon as the comparison is cancelled, and leaves no run files behind.
+    private ExternalSorter.Reader<Row> sortFile(String strFile, RowCodec codec) throws IOException {
+        ExternalSorter<Row> sorter = new ExternalSorter<Row>(new Comparator<Row>() {
+            public int compare(Row a, Row b) {
+                engine.checkCancelled();
+                return ROW_ORDER.compare(a, b);
+            }
+        }, codec, memoryBudget / BUDGET_SHARES * FILE_SHARES, tempDir);
+        CsvTokenizer tokenizer = engine.newTokenizer();
+        PackedKey key = new PackedKey();
+        boolean sorted = false;
+        try {
+            LineReader reader = engine.openLines(strFile);
+            try {
+                // Skip the header line
+                reader.nextLine();
+                while (reader.nextLine()) {
+                    String[] values = new String[engine.cmpCols.length];
+                    engine.tokenize(tokenizer, reader, key, values);
+                    sorter.add(new Row(Arrays.copyOf(key.bytes, key.length), reader.lineNumber(), values));
+                }
+            } finally {
+                reader.close();
+            }
+            ExternalSorter.Reader<Row> rows = sorter.sort();
+            sorted = true;
+            return rows;
+        } finally {
+            if (! sorted) {
+                sorter.discard();
+            }
+        }
+    }
+
+    // The key columns of a key, decoded only for the keys that have a result
+    private String[] columns(byte[] key) {
+        return PackedKey.columns(key, 0, key.length, engine.charset);
+    }
+
+    private void mergeJoin(ExternalSorter.Reader<Row> left, ExternalSorter.Reader<Row> right, ExternalSorter<Result> results) throws Exception {
+        Row a = left.next();
+        Row b = right.next();
+        while (a != null || b != null) {
+            engine.checkCancelled();
+            byte[] key;
+            if (a == null) {
+                key = b.key;
+            } else if (b == null || PackedKey.compare(a.key, a.key.length, b.key, b.key.length) <= 0) {
+                key = a.key;
+            } else {
+                key = b.key;
+            }
+
+            // The last line of File 1 with this key wins
+            Row winner = null;
+            while (a != null && Arrays.equals(a.key, key)) {
+                winner = a;
+                a = left.next();
+            }
+
+            boolean matched = false;
+            while (b != null && Arrays.equals(b.key, key)) {
+                if (winner != null && ! matched) {
+                    engine.metrics.countMatch();
+                    BitSet mismatches = engine.findMismatches(b.values, winner.values);
+                    if (mismatches != null) {
+                        results.add(new Result(0, b.line, winner.line, b.line, columns(key), mismatches));
+                    }
+                    matched = true;
+                } else {
+                    results.add(new Result(0, b.line, -1, b.line, columns(key), null));
+                }
+                b = right.next();
+            }
+
+            if (winner != null && ! matched) {
+                results.add(new Result(1, winner.line, winner.line, -1, columns(key), null));
+            }
+        }
+    }
+}
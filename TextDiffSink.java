@@ -0,0 +1,42 @@
+/*
+ * =============================================================================================
+ * Name: TextDiffSink.java
+ * Desc: Writes every result as the text line the comparison has always printed
+ *       (KEY: (key) => Mismatched columns = ... / Found only in ...).
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+class TextDiffSink implements DiffSink {
+    private final Writer out;
+    private DiffEngine engine;
+
+    TextDiffSink (Writer out) {
+        this.out = out;
+    }
+
+    public void start(DiffEngine engine) {
+        this.engine = engine;
+    }
+
+    public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException {
+        out.write(engine.formatResult(PackedKey.text(key), leftLine, rightLine, columns));
+    }
+
+    public void leftOnly(String[] key, int leftLine) throws IOException {
+        out.write(engine.formatResult(PackedKey.text(key), leftLine, -1, null));
+    }
+
+    public void rightOnly(String[] key, int rightLine) throws IOException {
+        out.write(engine.formatResult(PackedKey.text(key), -1, rightLine, null));
+    }
+
+    public void finish() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * =============================================================================================
+ * Name: ValueDictionary.java
+ * Desc: The distinct values of one compared column of File 1, numbered in the order they are
+ *       first seen, so that RowStore can keep a code in place of the bytes of a value that is
+ *       repeated over and over (a country, a status, a currency).
+ *       Whether a column is worth it is found out while loading: the dictionary closes as soon
+ *       as the column turns out to have more than MAX_SIZE distinct values. A closed dictionary
+ *       takes no new values, so a column of ids costs no more than MAX_SIZE entries and as many
+ *       lookups, but it still decodes the codes it gave out.
+ *       The values are kept as UTF-8 bytes, found through an open-addressing table, and as the
+ *       Strings they were added as, which decoding hands out without copying. Once loading is
+ *       done, any number of threads can read the dictionary, and look up the values of File 2
+ *       in it (see find), so that a value can be compared with a row by its code.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class ValueDictionary {
+    static final int MAX_SIZE = 4096;
+
+    // Value i is bytes[start[i], start[i + 1])
+    private byte[] bytes = new byte[1024];
+    private int[] start = new int[65];
+    private int[] hashes = new int[64];
+    private String[] strings = new String[64];
+    private int size;
+    private boolean closed;
+    private long stringBytes;
+
+    // Open-addressing table of (code + 1); 0 marks an empty slot
+    private int[] slots = new int[128];
+    private int mask = slots.length - 1;
+
+    // The code of the value b[from, to), which is s, adding it if it is new. -1 if the
+    // dictionary is closed.
+    int add(byte[] b, int from, int to, String s) {
+        if (closed) {
+            return -1;
+        }
+        int hash = RowStore.hash(b, from, to);
+        int slot = slot(hash, b, from, to);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == MAX_SIZE) {
+            closed = true;
+            return -1;
+        }
+        int code = size++;
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            strings = Arrays.copyOf(strings, size * 2);
+            start = Arrays.copyOf(start, size * 2 + 1);
+        }
+        int n = to - from;
+        if (bytes.length < start[code] + n) {
+            bytes = Arrays.copyOf(bytes, Math.max(start[code] + n, bytes.length * 2));
+        }
+        System.arraycopy(b, from, bytes, start[code], n);
+        start[code + 1] = start[code] + n;
+        hashes[code] = hash;
+        strings[code] = s;
+        stringBytes += ExternalSorter.estimateSize(s);
+        slots[slot] = code + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    // The code of the value b[from, to), or -1 if it is not in the dictionary. A closed
+    // dictionary still finds the values it has.
+    int find(byte[] b, int from, int to) {
+        return slots[slot(RowStore.hash(b, from, to), b, from, to)] - 1;
+    }
+
+    // The slot of the value b[from, to) with the given hash, or the empty slot it would go in
+    private int slot(int hash, byte[] b, int from, int to) {
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int code = slots[slot] - 1;
+            if (hashes[code] == hash && matches(code, b, from, to)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Whether the value of code is b[from, to)
+    boolean matches(int code, byte[] b, int from, int to) {
+        int pos = start[code];
+        if (start[code + 1] - pos != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (bytes[pos++] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String value(int code) {
+        return strings[code];
+    }
+
+    int size() { return size; }
+    boolean isClosed() { return closed; }
+
+    // Approximate heap used by the dictionary, with its Strings, in bytes
+    long memoryBytes() {
+        return bytes.length + start.length * 4L + hashes.length * 4L + strings.length * 4L + slots.length * 4L
+               + stringBytes;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int newMask = newSlots.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = hashes[code] & newMask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & newMask;
+            }
+            newSlots[slot] = code + 1;
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    // Write the dictionary to out, for read()
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeBoolean(closed);
+        for (int code = 0; code <= size; code++) {
+            out.writeInt(start[code]);
+        }
+        out.write(bytes, 0, start[size]);
+    }
+
+    // A dictionary written by write() at the position of in, or null if it is not one
+    static ValueDictionary read(ByteBuffer in) {
+        if (in.remaining() < 5) {
+            return null;
+        }
+        int size = in.getInt();
+        boolean closed = in.get() != 0;
+        if (size < 0 || size > MAX_SIZE || in.remaining() < (size + 1) * 4L) {
+            return null;
+        }
+        int[] start = new int[size + 1];
+        in.asIntBuffer().get(start);
+        in.position(in.position() + start.length * 4);
+        int length = start[size];
+        if (start[0] != 0 || length < 0 || length > in.remaining()) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        in.get(b);
+        ValueDictionary d = new ValueDictionary();
+        for (int code = 0; code < size; code++) {
+            if (start[code + 1] < start[code] || start[code + 1] > length) {
+                return null;
+            }
+            String s = new String(b, start[code], start[code + 1] - start[code], StandardCharsets.UTF_8);
+            d.add(b, start[code], start[code + 1], s);
+        }
+        if (d.size != size) {
+            return null;
+        }
+        d.closed = closed;
+        return d;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * =============================================================================================
+ * Name: EngineHotPaths.java
+ * Desc: The default package side of the benchmarks (see comparefiles.jmh.HotPaths): sets up a
+ *       DiffEngine on generated files and runs its hot paths on inputs prepared up front, so
+ *       that a benchmark measures the hot path and nothing else.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import comparefiles.jmh.HotPaths;
+import comparefiles.jmh.UsersCsv;
+
+public class EngineHotPaths implements HotPaths {
+    private DiffEngine engine;
+    private String file1;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private final PackedKey key = new PackedKey();
+    private String[] values;
+
+    // The data lines of the baseline, as bytes (data[start[i], end[i])) and as Strings
+    private byte[] data;
+    private int[] start, end;
+    private String[] lines;
+
+    // The packed keys of the data lines, and a store of the data lines for findKeys
+    private PackedKey[] keys;
+    private RowStore store;
+
+    // Inputs of areUnequal, isNumber and findMismatches, rows of each
+    private String[] numbers1, numbers2, texts1, texts2;
+    private String[][] values1, values2;
+
+    public void setUp(File dir, int rows) throws Exception {
+        File f1 = new File(dir, "users_v1.csv");
+        File f2 = new File(dir, "users_v2.csv");
+        UsersCsv.write(f1, rows, false, 1);
+        UsersCsv.write(f2, rows, true, 1);
+        file1 = f1.getPath();
+        engine = new DiffEngine(file1, f2.getPath(), UsersCsv.KEY, "", "");
+        engine.readHeader(file1);
+        engine.compareHeaders(f2.getPath());
+        engine.prepareColumns(file1);
+        values = new String[engine.cmpCols.length];
+
+        // The baseline in memory
+        data = new byte[(int) f1.length()];
+        start = new int[rows];
+        end = new int[rows];
+        lines = new String[rows];
+        int used = 0;
+        int n = 0;
+        LineReader reader = new LineReader(file1);
+        try {
+            reader.nextLine();
+            while (n < rows && reader.nextLine()) {
+                int length = reader.lineEnd() - reader.lineStart();
+                System.arraycopy(reader.buffer(), reader.lineStart(), data, used, length);
+                start[n] = used;
+                end[n] = used + length;
+                lines[n] = new String(data, used, length, StandardCharsets.UTF_8);
+                used += length;
+                n++;
+            }
+        } finally {
+            reader.close();
+        }
+        if (n < rows) {
+            throw new Exception("Only " + n + " of " + rows + " lines read from " + file1 + ".");
+        }
+        keys = new PackedKey[rows];
+        store = new RowStore(engine.cmpCols.length);
+        for (int i = 0; i < rows; i++) {
+            keys[i] = new PackedKey();
+            engine.tokenize(tokenizer, data, start[i], end[i], keys[i], values);
+            store.add(keys[i], values, i + 2);
+        }
+
+        // The values of the rows found in both files
+        HashMap<String, String[]> rows2 = new HashMap<String, String[]>();
+        reader = new LineReader(f2.getPath());
+        try {
+            reader.nextLine();
+            while (reader.nextLine()) {
+                String[] v = new String[engine.cmpCols.length];
+                rows2.put(engine.tokenize(tokenizer, reader, v), v);
+            }
+        } finally {
+            reader.close();
+        }
+        ArrayList<String[]> matched1 = new ArrayList<String[]>();
+        ArrayList<String[]> matched2 = new ArrayList<String[]>();
+        ArrayList<String> numbers = new ArrayList<String>();
+        ArrayList<String> texts = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            String[] v1 = new String[engine.cmpCols.length];
+            String key = engine.tokenize(tokenizer, data, start[i], end[i], v1);
+            String[] v2 = rows2.get(key);
+            if (v2 == null) {
+                continue;
+            }
+            matched1.add(v1);
+            matched2.add(v2);
+            texts.add(key);
+            texts.add(key);
+            for (int c = 0; c < v1.length; c++) {
+                ColumnType type = engine.cmpTypes[c];
+                if (type == ColumnType.INTEGER || type == ColumnType.DECIMAL) {
+                    if (! v1[c].isEmpty() && ! v2[c].isEmpty()) {
+                        numbers.add(v1[c]);
+                        numbers.add(v2[c]);
+                    }
+                } else if (! v1[c].isEmpty() || ! v2[c].isEmpty()) {
+                    texts.add(v1[c]);
+                    texts.add(v2[c]);
+                }
+            }
+        }
+
+        // rows inputs each, going round the values found as often as needed
+        numbers1 = new String[rows];
+        numbers2 = new String[rows];
+        texts1 = new String[rows];
+        texts2 = new String[rows];
+        values1 = new String[rows][];
+        values2 = new String[rows][];
+        for (int i = 0; i < rows; i++) {
+            int p = 2 * i % numbers.size();
+            numbers1[i] = numbers.get(p);
+            numbers2[i] = numbers.get(p + 1);
+            p = 2 * i % texts.size();
+            texts1[i] = texts.get(p);
+            texts2[i] = texts.get(p + 1);
+            values1[i] = matched1.get(i % matched1.size());
+            values2[i] = matched2.get(i % matched2.size());
+        }
+    }
+
+    public int split() {
+        int fields = 0;
+        for (String line : lines) {
+            fields += CsvTokenizer.split(line).length;
+        }
+        return fields;
+    }
+
+    public int tokenize() {
+        int chars = 0;
+        for (int i = 0; i < start.length; i++) {
+            chars += engine.tokenize(tokenizer, data, start[i], end[i], values).length();
+        }
+        return chars;
+    }
+
+    public int tokenizePacked() {
+        int bytes = 0;
+        for (int i = 0; i < start.length; i++) {
+            engine.tokenize(tokenizer, data, start[i], end[i], key, values);
+            bytes += key.length;
+        }
+        return bytes;
+    }
+
+    public int findKeys() {
+        int found = 0;
+        for (PackedKey k : keys) {
+            if (store.find(k) != -1) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    public int readAndTokenize() throws Exception {
+        int chars = 0;
+        LineReader reader = new LineReader(file1);
+        try {
+            reader.nextLine();
+            while (reader.nextLine()) {
+                chars += engine.tokenize(tokenizer, reader, values).length();
+            }
+        } finally {
+            reader.close();
+        }
+        return chars;
+    }
+
+    public int areUnequal(boolean numbers) {
+        String[] a = numbers ? numbers1 : texts1;
+        String[] b = numbers ? numbers2 : texts2;
+        int unequal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (engine.areUnequal(a[i], b[i])) {
+                unequal++;
+            }
+        }
+        return unequal;
+    }
+
+    public int isNumber(boolean numbers) {
+        String[] a = numbers ? numbers1 : texts1;
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (engine.isNumber(a[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int findMismatches() {
+        int mismatched = 0;
+        for (int i = 0; i < values1.length; i++) {
+            if (engine.findMismatches(values1[i], values2[i]) != null) {
+                mismatched++;
+            }
+        }
+        return mismatched;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * =============================================================================================
+ * Name: ScalingBenchmark.java
+ * Desc: End-to-end benchmark of a comparison: generates a pair of files (see
+ *       comparefiles.jmh.CsvPairGenerator, whose options it takes) and runs readHeader,
+ *       loadData and compareData on them, as DiffEngine.run() does for -a hash and -a index.
+ *       Every run prints one JSON line to standard output with the time of each phase, rows
+ *       and MB per second, the peak heap, the GC time and the bytes allocated per row, so that
+ *       runs of different builds or machines can be collected and compared by a script.
+ *       Options besides those of the generator:
+ *         -dir <dir>           keep the generated files in dir and use them again next time
+ *                              (default: a temporary directory, deleted at the end)
+ *         -runs <n>            number of comparisons of the pair, one JSON line each (1)
+ *         -a <hash|index>      the algorithm (hash)
+ *         -P <threads>         parser threads of loadData and compareData (0)
+ *         -p <precision>       the tolerance (default that of DiffEngine)
+ *       Usage: java -Xmx8g -cp benchmarks.jar ScalingBenchmark -rows 10000000 -runs 3
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+import comparefiles.jmh.CsvPairGenerator;
+
+public class ScalingBenchmark {
+    // Counts the results instead of keeping them
+    static class CountingSink implements DiffSink {
+        long mismatches, leftOnly, rightOnly;
+
+        public void start(DiffEngine engine) {
+        }
+
+        public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) {
+            mismatches++;
+        }
+
+        public void leftOnly(String[] key, int leftLine) {
+            leftOnly++;
+        }
+
+        public void rightOnly(String[] key, int rightLine) {
+            rightOnly++;
+        }
+
+        public void finish() {
+        }
+    }
+
+    private final CsvPairGenerator generator = new CsvPairGenerator();
+    private String algorithm = "hash";
+    private int parsers;
+    private String tolerance = "";
+
+    public static void main(String[] args) throws Exception {
+        ScalingBenchmark benchmark = new ScalingBenchmark();
+        File dir = null;
+        int runs = 1;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                usage("Missing value of " + args[i]);
+            } else if (args[i].equals("-dir")) {
+                dir = new File(value);
+            } else if (args[i].equals("-runs")) {
+                runs = Integer.parseInt(value);
+            } else if (args[i].equals("-a")) {
+                if (! value.equals("hash") && ! value.equals("index")) {
+                    usage("Unknown algorithm: " + value);
+                }
+                benchmark.algorithm = value;
+            } else if (args[i].equals("-P")) {
+                benchmark.parsers = Integer.parseInt(value);
+            } else if (args[i].equals("-p")) {
+                benchmark.tolerance = value;
+            } else if (! benchmark.generator.setOption(args[i], value)) {
+                usage("Unknown option: " + args[i]);
+            }
+        }
+
+        boolean keep = dir != null;
+        if (! keep) {
+            dir = Files.createTempDirectory("csvdiff-scaling").toFile();
+        } else if (! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new Exception("Cannot create directory " + dir + ".");
+        }
+        File f1 = new File(dir, benchmark.generator.name() + "_v1.csv");
+        File f2 = new File(dir, benchmark.generator.name() + "_v2.csv");
+        try {
+            if (! f1.isFile() || ! f2.isFile()) {
+                long start = System.nanoTime();
+                benchmark.generator.write(f1, f2);
+                System.err.println("Generated " + f1 + " and " + f2 + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            for (int run = 1; run <= runs; run++) {
+                System.out.println(benchmark.run(run, f1, f2));
+            }
+        } finally {
+            if (! keep) {
+                f1.delete();
+                f2.delete();
+                dir.delete();
+            }
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: ScalingBenchmark [-dir <dir>] [-runs <n>] [-a <hash|index>] [-P <threads>] [-p <precision>]"
+                           + " [-rows <n>] [-columns <n>] [-keys <n>] [-diff-rate <r>] [-left-only-rate <r>]"
+                           + " [-right-only-rate <r>] [-text-ratio <r>] [-seed <n>]");
+        System.exit(1);
+    }
+
+    // One comparison of f1 and f2; returns its JSON line
+    private String run(int run, File f1, File f2) throws Exception {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcTime = gcTime();
+        long gcCount = gcCount();
+        long allocated = allocatedBytes();
+
+        long start = System.nanoTime();
+        DiffEngine engine = new DiffEngine(f1.getPath(), f2.getPath(), "Location", tolerance, "");
+        engine.setAlgorithm(algorithm);
+        engine.setParsers(parsers);
+        CountingSink sink = new CountingSink();
+        engine.setSink(sink);
+        engine.readHeader(engine.file1);
+        engine.compareHeaders(engine.file2);
+        sink.start(engine);
+        long headerDone = System.nanoTime();
+        engine.loadData(engine.file1);
+        long loadDone = System.nanoTime();
+        engine.compareData(engine.file2);
+        sink.finish();
+        long end = System.nanoTime();
+
+        allocated = allocatedBytes() - allocated;
+        gcTime = gcTime() - gcTime;
+        gcCount = gcCount() - gcCount;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        int rows1 = CsvFileSession.get(engine.file1).rowCount();
+        int rows2 = CsvFileSession.get(engine.file2).rowCount();
+        long rows = (long) rows1 + rows2;
+        long bytes = f1.length() + f2.length();
+        double seconds = (end - start) / 1e9;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"run\":").append(run);
+        sb.append(",\"algorithm\":\"").append(algorithm).append('"');
+        sb.append(",\"parsers\":").append(parsers);
+        sb.append(",\"file1Rows\":").append(rows1);
+        sb.append(",\"file2Rows\":").append(rows2);
+        sb.append(",\"columns\":").append(engine.getHeader().size());
+        sb.append(",\"keys\":").append(generator.getKeys());
+        sb.append(",\"bytes\":").append(bytes);
+        sb.append(",\"headerMs\":").append((headerDone - start) / 1000000);
+        sb.append(",\"loadMs\":").append((loadDone - headerDone) / 1000000);
+        sb.append(",\"compareMs\":").append((end - loadDone) / 1000000);
+        sb.append(",\"totalMs\":").append((end - start) / 1000000);
+        sb.append(",\"rowsPerSecond\":").append(Math.round(rows / seconds));
+        sb.append(",\"mbPerSecond\":").append(Math.round(bytes / seconds / (1 << 20) * 10) / 10.0);
+        sb.append(",\"peakHeapBytes\":").append(peakHeap);
+        sb.append(",\"maxHeapBytes\":").append(Runtime.getRuntime().maxMemory());
+        sb.append(",\"gcMs\":").append(gcTime);
+        sb.append(",\"gcCount\":").append(gcCount);
+        sb.append(",\"allocatedBytes\":").append(allocated);
+        sb.append(",\"allocatedBytesPerRow\":").append(rows == 0 ? 0 : allocated / rows);
+        sb.append(",\"mismatches\":").append(sink.mismatches);
+        sb.append(",\"file1Only\":").append(sink.leftOnly);
+        sb.append(",\"file2Only\":").append(sink.rightOnly);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static long gcTime() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return ms;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // Bytes allocated by all threads so far, the parser threads that are gone included. That
+    // takes a JVM of version 14 or later; older ones count the calling thread only.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (! (threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        try {
+            Method total = com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+            return (Long) total.invoke(bean);
+        } catch (ReflectiveOperationException ex) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * =============================================================================================
+ * Name: CsvPairGenerator.java
+ * Desc: Generates a pair of csv files to compare, shaped like internet_users_v1.csv and
+ *       internet_users_v2.csv, in sizes and mixes set by options:
+ *         -rows <n>            data lines of File 1 (default 1000000)
+ *         -columns <n>         columns, the Location key included (default 8)
+ *         -keys <n>            distinct keys among the lines of File 1 (default: rows); fewer
+ *                              keys than rows repeat keys, as a file with duplicates does
+ *         -diff-rate <r>       share of the lines in both files with a changed value (0.05)
+ *         -left-only-rate <r>  share of the lines of File 1 that File 2 does not have (0.01)
+ *         -right-only-rate <r> lines found only in File 2, per line of File 1 (0.01)
+ *         -text-ratio <r>      share of the value columns that hold text, e.g. notes, rather
+ *                              than numbers (default 0.15, which makes the 8 columns of
+ *                              internet_users_v1.csv: 6 numeric columns and Notes)
+ *         -seed <n>            the same options and seed always give the same files (1)
+ *       Every value of a line is derived from its id and the seed alone (no shared random
+ *       stream), so both files are written side by side in one pass and lines can be
+ *       generated in any order.
+ *       Usage: java -cp benchmarks.jar comparefiles.jmh.CsvPairGenerator <file1> <file2> [options]
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+package comparefiles.jmh;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public final class CsvPairGenerator {
+    private static final String[] NUMERIC_NAMES = {
+        "Rate (WB)", "Year", "Rate (ITU)", "Year.1", "Users (CIA)", "Year.2"
+    };
+    // The kind of value of each of NUMERIC_NAMES; value columns after them go round again
+    private static final int RATE = 0;
+    private static final int YEAR = 1;
+    private static final int USERS = 2;
+    private static final int[] NUMERIC_KINDS = { RATE, YEAR, RATE, YEAR, USERS, YEAR };
+
+    private static final String[] TEXTS = {
+        "Estimate", "Includes overseas territories", "Excludes military personnel",
+        "Survey data", "Mobile subscriptions only", "Break in series", "Provisional",
+        "Households with access", "Urban areas only", "Revised"
+    };
+
+    private int rows = 1000000;
+    private int columns = 8;
+    private int keys = -1;
+    private double diffRate = 0.05;
+    private double leftOnlyRate = 0.01;
+    private double rightOnlyRate = 0.01;
+    private double textRatio = 0.15;
+    private long seed = 1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length % 2 != 0) {
+            System.err.println("Usage: CsvPairGenerator <file1> <file2> [-rows <n>] [-columns <n>] [-keys <n>] [-diff-rate <r>]"
+                               + " [-left-only-rate <r>] [-right-only-rate <r>] [-text-ratio <r>] [-seed <n>]");
+            System.exit(1);
+        }
+        CsvPairGenerator generator = new CsvPairGenerator();
+        for (int i = 2; i < args.length; i += 2) {
+            if (! generator.setOption(args[i], args[i + 1])) {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        generator.write(new File(args[0]), new File(args[1]));
+    }
+
+    // Set one of the options above; false if name is not one of them
+    public boolean setOption(String name, String value) {
+        if (name.equals("-rows")) {
+            rows = Integer.parseInt(value);
+        } else if (name.equals("-columns")) {
+            columns = Math.max(2, Integer.parseInt(value));
+        } else if (name.equals("-keys")) {
+            keys = Integer.parseInt(value);
+        } else if (name.equals("-diff-rate")) {
+            diffRate = Double.parseDouble(value);
+        } else if (name.equals("-left-only-rate")) {
+            leftOnlyRate = Double.parseDouble(value);
+        } else if (name.equals("-right-only-rate")) {
+            rightOnlyRate = Double.parseDouble(value);
+        } else if (name.equals("-text-ratio")) {
+            textRatio = Double.parseDouble(value);
+        } else if (name.equals("-seed")) {
+            seed = Long.parseLong(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    public int getRows() { return rows; }
+    public int getColumns() { return columns; }
+    public int getKeys() { return keys < 0 ? rows : keys; }
+
+    // A file name stem made of the options, for pairs that are kept to be compared again
+    public String name() {
+        return "pair_r" + rows + "_c" + columns + "_k" + getKeys() + "_d" + diffRate + "_l" + leftOnlyRate
+               + "_o" + rightOnlyRate + "_t" + textRatio + "_s" + seed;
+    }
+
+    // The column names, Location first
+    public String header() {
+        StringBuilder sb = new StringBuilder("Location");
+        int texts = textColumns();
+        for (int c = 1; c < columns; c++) {
+            int k = c - 1;
+            sb.append(',');
+            if (c >= columns - texts) {
+                int t = c - (columns - texts);
+                sb.append(t == 0 ? "Notes" : "Notes." + t);
+            } else if (k < NUMERIC_NAMES.length) {
+                sb.append(NUMERIC_NAMES[k]);
+            } else {
+                sb.append("Value.").append(k);
+            }
+        }
+        return sb.toString();
+    }
+
+    // The last columns are the text columns, as Notes is in internet_users_v1.csv
+    private int textColumns() {
+        return (int) Math.round((columns - 1) * Math.max(0, Math.min(1, textRatio)));
+    }
+
+    public void write(File file1, File file2) throws IOException {
+        Writer out1 = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file1), StandardCharsets.UTF_8), 1 << 16);
+        Writer out2 = null;
+        try {
+            out2 = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file2), StandardCharsets.UTF_8), 1 << 16);
+            String header = header();
+            out1.write(header);
+            out1.write('\n');
+            out2.write(header);
+            out2.write('\n');
+            int distinctKeys = getKeys();
+            int textStart = columns - textColumns();
+            int rightOnly = 0;
+            StringBuilder sb = new StringBuilder(256);
+            for (int id = 0; id < rows; id++) {
+                int key = distinctKeys > 0 ? id % distinctKeys : id;
+                sb.setLength(0);
+                appendLine(sb, key, id, -1, textStart);
+                out1.append(sb);
+                if (uniform(id, -1) >= leftOnlyRate) {
+                    if (uniform(id, -2) < diffRate) {
+                        sb.setLength(0);
+                        appendLine(sb, key, id, 1 + (int) ((random(id, -3) >>> 1) % (columns - 1)), textStart);
+                    }
+                    out2.append(sb);
+                }
+                if (uniform(id, -4) < rightOnlyRate) {
+                    // A key that File 1 does not have
+                    sb.setLength(0);
+                    appendLine(sb, distinctKeys + rightOnly, rows + rightOnly, -1, textStart);
+                    out2.append(sb);
+                    rightOnly++;
+                }
+            }
+        } finally {
+            out1.close();
+            if (out2 != null) {
+                out2.close();
+            }
+        }
+    }
+
+    // The line of key with the values of id; column changed (if not -1) gets another value
+    private void appendLine(StringBuilder sb, int key, int id, int changed, int textStart) {
+        if ((random(key, -5) >>> 1) % 30 == 0) {
+            sb.append('"');
+            UsersCsv.appendName(sb, key);
+            sb.append(", ");
+            UsersCsv.appendName(sb, key % 256);
+            sb.append('"');
+        } else {
+            UsersCsv.appendName(sb, key);
+        }
+        for (int c = 1; c < columns; c++) {
+            sb.append(',');
+            long r = random(id, c);
+            if (c == changed) {
+                r = ~r;
+            }
+            if (c >= textStart) {
+                if ((r & 1) == 0 || c == changed) {
+                    sb.append(TEXTS[(int) ((r >>> 8) % TEXTS.length)]);
+                }
+                continue;
+            }
+            // Some sources have no data for some locations
+            if ((r & 31) == 0 && c != changed) {
+                continue;
+            }
+            switch (NUMERIC_KINDS[(c - 1) % NUMERIC_KINDS.length]) {
+            case RATE:
+                UsersCsv.appendTenths(sb, (int) ((r >>> 8) % 1001));
+                break;
+            case YEAR:
+                sb.append(2000 + (r >>> 8) % 24).append(".0");
+                break;
+            default:
+                sb.append(((r >>> 8) % 1000000 + 1) * 1000).append(".0");
+                break;
+            }
+        }
+        sb.append('\n');
+    }
+
+    private long random(long id, int salt) {
+        long z = seed * 0x9E3779B97F4A7C15L + id * 0xD1B54A32D192ED03L + salt * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // A number in [0, 1) derived from id and salt
+    private double uniform(long id, int salt) {
+        return (random(id, salt) >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * =============================================================================================
+ * Name: HotPathBenchmark.java
+ * Desc: JMH benchmarks of the comparison hot paths (see HotPaths), on ROWS generated lines or
+ *       values per invocation. Scores are per line or value: ns/op, and with -prof gc the
+ *       bytes allocated per line or value (gc.alloc.rate.norm).
+ *         java -jar target/benchmarks.jar -prof gc
+ *         java -jar target/benchmarks.jar HotPathBenchmark.tokenize -prof gc
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+package comparefiles.jmh;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HotPathBenchmark {
+    static final int ROWS = 10000;
+
+    private File dir;
+    private HotPaths hot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("csvdiff-jmh").toFile();
+        hot = (HotPaths) Class.forName(HotPaths.IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        hot.setUp(dir, ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int split() {
+        return hot.split();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int tokenize() {
+        return hot.tokenize();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int tokenizePacked() {
+        return hot.tokenizePacked();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int findKeys() {
+        return hot.findKeys();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int readAndTokenize() throws Exception {
+        return hot.readAndTokenize();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int areUnequalNumbers() {
+        return hot.areUnequal(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int areUnequalText() {
+        return hot.areUnequal(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int isNumberNumbers() {
+        return hot.isNumber(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int isNumberText() {
+        return hot.isNumber(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int findMismatches() {
+        return hot.findMismatches();
+    }
+}
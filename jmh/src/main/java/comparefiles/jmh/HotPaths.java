@@ -0,0 +1,53 @@
+/*
+ * =============================================================================================
+ * Name: HotPaths.java
+ * Desc: The hot paths of DiffEngine, as the benchmarks see them. JMH does not take benchmarks
+ *       in the default package, and code in a package cannot name the classes of the default
+ *       package (where DiffEngine and the rest of the tool are), so the benchmarks reach the
+ *       engine through this interface, which EngineHotPaths (default package) implements.
+ *       The calls are plain interface calls: no reflection on the measured path.
+ *       setUp() generates the data; every other method then goes over rows inputs once and
+ *       returns something made of its results, for the benchmark to consume.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+package comparefiles.jmh;
+
+import java.io.File;
+
+public interface HotPaths {
+    // Name of the implementing class, in the default package
+    String IMPLEMENTATION = "EngineHotPaths";
+
+    // Write a baseline and a changed file of rows data lines each to dir (see UsersCsv) and
+    // set up an engine that compares them by Location
+    void setUp(File dir, int rows) throws Exception;
+
+    // CsvTokenizer.split, the split of a header line or a typed list, on the data lines of the
+    // baseline
+    int split();
+
+    // DiffEngine.tokenize, the split of a line into key and values in loadData and compareData,
+    // on the data lines of the baseline held in memory
+    int tokenize();
+
+    // DiffEngine.tokenize with the key packed for RowStore instead of made into a String
+    int tokenizePacked();
+
+    // RowStore.find of the packed keys of the data lines of the baseline, in a store of them
+    int findKeys();
+
+    // LineReader and DiffEngine.tokenize over the baseline file, as in loadData
+    int readAndTokenize() throws Exception;
+
+    // DiffEngine.areUnequal on pairs of values of matched rows, numeric or text columns
+    int areUnequal(boolean numbers);
+
+    // DiffEngine.isNumber on values of numeric or text columns
+    int isNumber(boolean numbers);
+
+    // DiffEngine.findMismatches on the compared values of matched rows
+    int findMismatches();
+}
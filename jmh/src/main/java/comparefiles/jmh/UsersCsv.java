@@ -0,0 +1,153 @@
+/*
+ * =============================================================================================
+ * Name: UsersCsv.java
+ * Desc: Generates csv files shaped like internet_users_v1.csv: a Location key, rates with one
+ *       decimal, years and user counts written as decimals ("2023.0", "7020000.0"), empty
+ *       fields where a source has no data and a mostly empty Notes column. A few locations
+ *       have a comma in their name and are quoted.
+ *       The baseline of a given seed is always the same file. The changed version of it is the
+ *       baseline with about one row in 20 changed beyond the default tolerance (0.01), one in
+ *       50 changed within it, one in 100 with other notes, one in 100 gone and as many new rows
+ *       at the end.
+ *       Usage: java -cp benchmarks.jar comparefiles.jmh.UsersCsv <file> <rows> [changed] [seed]
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+package comparefiles.jmh;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public final class UsersCsv {
+    public static final String HEADER = "Location,Rate (WB),Year,Rate (ITU),Year.1,Users (CIA),Year.2,Notes";
+    public static final String KEY = "Location";
+
+    private static final String[] SYLLABLES = {
+        "ba", "ko", "ri", "ta", "ne", "lu", "mo", "sa", "vi", "de", "ga", "po", "zu", "fe", "hi", "ra"
+    };
+    private static final String[] NOTES = {
+        "Estimate", "Includes overseas territories", "Excludes military personnel",
+        "Survey data", "Mobile subscriptions only", "Break in series"
+    };
+
+    private UsersCsv() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: UsersCsv <file> <rows> [changed] [seed]");
+            System.exit(1);
+        }
+        boolean changed = args.length > 2 && args[2].equals("changed");
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        write(new File(args[0]), Integer.parseInt(args[1]), changed, seed);
+    }
+
+    // Write the baseline of seed, or its changed version, with rows data lines to file
+    public static void write(File file, int rows, boolean changed, long seed) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            out.write(HEADER);
+            out.write('\n');
+            StringBuilder sb = new StringBuilder(128);
+            Random change = new Random(seed ^ 0x5DEECE66DL);
+            int dropped = 0;
+            for (int i = 0; i < rows; i++) {
+                int roll = changed ? change.nextInt(100) : 100;
+                if (roll == 0) {
+                    dropped++;
+                    continue;
+                }
+                sb.setLength(0);
+                appendRow(sb, i, seed, roll);
+                out.append(sb);
+            }
+            for (int i = 0; i < dropped; i++) {
+                sb.setLength(0);
+                appendRow(sb, rows + i, seed, 100);
+                out.append(sb);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // Row i of the baseline; roll < 100 of the changed version changes it: 1-5 beyond the
+    // tolerance, 6-7 within it, 8 the notes
+    private static void appendRow(StringBuilder sb, int i, long seed, int roll) {
+        Random r = new Random(seed * 1000003 + i);
+        appendLocation(sb, i, r.nextInt(30) == 0);
+        sb.append(',');
+        boolean hasWb = r.nextInt(20) != 0;
+        int wb = r.nextInt(1001);                       // tenths of a percent
+        int itu = Math.max(0, Math.min(1000, wb + r.nextInt(21) - 10));
+        int wbYear = 2015 + r.nextInt(9);
+        int ituYear = wbYear - r.nextInt(2);
+        boolean hasCia = r.nextInt(10) != 0;
+        long users = (1 + r.nextInt(1000000)) * 1000L;
+        int ciaYear = 2015 + r.nextInt(9);
+        String notes = r.nextInt(10) == 0 ? NOTES[r.nextInt(NOTES.length)] : "";
+
+        boolean withinTolerance = false;
+        if (roll >= 1 && roll <= 5) {
+            wb = (wb + 1 + roll * 7) % 1001;
+            hasWb = true;
+        } else if (roll >= 6 && roll <= 7) {
+            withinTolerance = true;
+        } else if (roll == 8) {
+            notes = notes.isEmpty() ? NOTES[i % NOTES.length] : "";
+        }
+
+        if (hasWb) {
+            appendTenths(sb, wb);
+            if (withinTolerance) {
+                sb.append("01");                        // 0.001 more
+            }
+            sb.append(',').append(wbYear).append(".0,");
+        } else {
+            sb.append(",,");
+        }
+        appendTenths(sb, itu);
+        sb.append(',').append(ituYear).append(".0,");
+        if (hasCia) {
+            sb.append(users).append(".0,").append(ciaYear).append(".0,");
+        } else {
+            sb.append(",,");
+        }
+        sb.append(notes).append('\n');
+    }
+
+    // A unique name for i; quoted if it has a region after a comma
+    private static void appendLocation(StringBuilder sb, int i, boolean withRegion) {
+        if (withRegion) {
+            sb.append('"');
+        }
+        appendName(sb, i);
+        if (withRegion) {
+            sb.append(", ").append(Character.toUpperCase(SYLLABLES[i % 16].charAt(0))).append(SYLLABLES[(i / 16) % 16]).append("land\"");
+        }
+    }
+
+    // A name made of syllables, one for every 4 bits of i, so that no two i have the same name
+    static void appendName(StringBuilder sb, int i) {
+        int start = sb.length();
+        int n = i;
+        do {
+            sb.append(SYLLABLES[n & 15]);
+            n >>>= 4;
+        } while (n != 0);
+        sb.setCharAt(start, Character.toUpperCase(sb.charAt(start)));
+    }
+
+    static void appendTenths(StringBuilder sb, int tenths) {
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * =============================================================================================
+ * Name: CsvFileSessionTest.java
+ * Desc: Tests of the encoding that CsvFileSession finds out for a file.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvFileSessionTest {
+    @TempDir
+    File dir;
+
+    private String encoding(String name, byte[] content) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), content);
+        return CsvFileSession.get(f.getPath()).encoding();
+    }
+
+    @Test
+    void utf8() throws IOException {
+        assertEquals("UTF-8", encoding("a.csv", "id,name\n1,Müller\n".getBytes(StandardCharsets.UTF_8)));
+        byte[] b = "\uFEFFid,name\n1,Müller\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals("UTF-8 (BOM)", encoding("b.csv", b));
+    }
+
+    @Test
+    void latin1() throws IOException {
+        byte[] b = "id,name\n1,Müller\n".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(CsvFileSession.NOT_UTF8, encoding("a.csv", b));
+    }
+
+    @Test
+    void characterCutOffBySample() throws IOException {
+        // A euro sign across the end of the sample
+        byte[] b = new byte[CsvFileSession.ENCODING_SAMPLE + 10];
+        Arrays.fill(b, (byte) 'a');
+        byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(euro, 0, b, CsvFileSession.ENCODING_SAMPLE - 2, euro.length);
+        assertEquals("UTF-8", encoding("a.csv", b));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * =============================================================================================
+ * Name: CsvTokenizerTest.java
+ * Desc: Tests of how CsvTokenizer decodes fields, and of comparisons of files that are not in
+ *       UTF-8: values that differ in the file must never compare as equal.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvTokenizerTest {
+    private static final Charset CP1252 = Charset.forName("windows-1252");
+
+    @TempDir
+    File dir;
+
+    private static String[] fields(CsvTokenizer t, byte[] b) {
+        int n = t.split(b, 0, b.length, 10);
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = t.field(i);
+        }
+        return out;
+    }
+
+    private File write(String name, String content, Charset cs) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), content.getBytes(cs));
+        return f;
+    }
+
+    private String compare(File f1, File f2, Charset cs) throws Exception {
+        StringWriter out = new StringWriter();
+        DiffEngine engine = new DiffEngine(f1.getPath(), f2.getPath(), "name", "", "");
+        engine.setSink(new TextDiffSink(out));
+        engine.setCharset(cs);
+        engine.run();
+        return out.toString();
+    }
+
+    @Test
+    void utf8Fields() {
+        byte[] b = "Müller,\"Gräf, A\"".getBytes(StandardCharsets.UTF_8);
+        String[] f = fields(new CsvTokenizer(), b);
+        assertEquals("Müller", f[0]);
+        assertEquals("Gräf, A", f[1]);
+    }
+
+    @Test
+    void invalidUtf8IsNeverReplaced() {
+        // Latin-1 bytes read as UTF-8: both would be U+FFFD
+        byte[] b = "Müller,Mäller,\"Möller\"".getBytes(StandardCharsets.ISO_8859_1);
+        String[] f = fields(new CsvTokenizer(), b);
+        assertNotEquals(f[0], f[1]);
+        for (String s : f) {
+            assertFalse(s.contains("\uFFFD"), s);
+        }
+        assertEquals("Möller", f[2]);
+    }
+
+    @Test
+    void otherCharset() {
+        byte[] b = "€ 5,naïve".getBytes(CP1252);
+        String[] f = fields(new CsvTokenizer(CP1252), b);
+        assertEquals("€ 5", f[0]);
+        assertEquals("naïve", f[1]);
+    }
+
+    @Test
+    void isUtf8() {
+        byte[] good = "aé€😀".getBytes(StandardCharsets.UTF_8);
+        assertTrue(CsvTokenizer.isUtf8(good, 0, good.length));
+        assertFalse(CsvTokenizer.isUtf8(good, 0, good.length - 1));         // cut short
+        assertFalse(CsvTokenizer.isUtf8(new byte[]{(byte) 0xE9}, 0, 1));
+        assertFalse(CsvTokenizer.isUtf8(new byte[]{(byte) 0xC0, (byte) 0xAF}, 0, 2));    // overlong
+        assertFalse(CsvTokenizer.isUtf8(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}, 0, 3));   // surrogate
+    }
+
+    @Test
+    void latin1FilesReadAsUtf8() throws Exception {
+        File f1 = write("a.csv", "name,v\nMüller,1\nMäller,2\n", StandardCharsets.ISO_8859_1);
+        File f2 = write("b.csv", "name,v\nMöller,1\nMäller,3\n", StandardCharsets.ISO_8859_1);
+        String results = compare(f1, f2, StandardCharsets.UTF_8);
+        assertTrue(results.contains("(Müller)"), results);
+        assertTrue(results.contains("(Möller)"), results);
+        assertTrue(results.contains("(Mäller)") && results.contains("Mismatched columns = v:2"), results);
+    }
+
+    @Test
+    void filesInOtherCharset() throws Exception {
+        File f1 = write("a.csv", "name,v\nMüller,€1\nMäller,€2\n", CP1252);
+        File f2 = write("b.csv", "name,v\nMüller,€1\nMäller,€3\n", CP1252);
+        String results = compare(f1, f2, CP1252);
+        assertEquals(String.format("KEY: %-30s => Mismatched columns = v:2\n", "(Mäller)"), results);
+    }
+}
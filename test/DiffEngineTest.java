@@ -0,0 +1,278 @@
+/*
+ * =============================================================================================
+ * Name: DiffEngineTest.java
+ * Desc: Tests that every algorithm of DiffEngine, on one thread or several, finds the same
+ *       results in the same order, in particular for composite keys whose columns hold commas
+ *       and for keys that File 2 has more than once; and that the pipelined comparison (see
+ *       RecordPipeline) finds those of the serial one, and stops when it is cancelled or when a
+ *       parser thread fails.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiffEngineTest {
+    static final String[] ALGORITHMS = {"hash", "index", "sort", "partition", "merge"};
+
+    @TempDir
+    File dir;
+
+    private File write(String name, String content) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private String compare(File f1, File f2, String keys, String algorithm) throws Exception {
+        return compare(f1, f2, keys, "", "", algorithm, 1, 0);
+    }
+
+    // The text results of one comparison; threads and parsers as -t and -P have them
+    private String compare(File f1, File f2, String keys, String tolerance, String exclude, String algorithm,
+                           int threads, int parsers) throws Exception {
+        StringWriter out = new StringWriter();
+        DiffEngine engine = new DiffEngine(f1.getPath(), f2.getPath(), keys, tolerance, exclude);
+        engine.setSink(new TextDiffSink(out));
+        engine.setAlgorithm(algorithm);
+        engine.setParallelism(threads);
+        engine.setParsers(parsers);
+        engine.setMemoryBudget(1L << 20);
+        engine.run();
+        return out.toString();
+    }
+
+    // Every algorithm, on one thread and on several, with and without parser threads, finds
+    // the results of the single-threaded hash comparison, in the same order
+    private String assertSameForEveryMode(File f1, File f2, String keys, String tolerance, String exclude) throws Exception {
+        String expected = compare(f1, f2, keys, tolerance, exclude, "hash", 1, 0);
+        for (String algorithm : ALGORITHMS) {
+            for (int threads : new int[]{1, 4}) {
+                for (int parsers : new int[]{0, 2}) {
+                    assertEquals(expected, compare(f1, f2, keys, tolerance, exclude, algorithm, threads, parsers),
+                                 algorithm + " -t " + threads + " -P " + parsers);
+                }
+            }
+        }
+        return expected;
+    }
+
+    // A data line of the large files below: key (id, sub), a text and a number compared within
+    // the tolerance, and a note that is excluded and makes the line long. Some notes are quoted
+    // and span two lines.
+    private static void line(StringBuilder sb, int id, String sub, String v, double amount, int note) {
+        sb.append(id).append(',').append(sub).append(',').append(v).append(',').append(amount).append(',');
+        if (note % 11 == 0) {
+            sb.append("\"note, ").append(note).append("\nsecond line\"");
+        } else {
+            sb.append("note-").append(note);
+        }
+        sb.append(",padding padding padding padding padding\n");
+    }
+
+    private void compare(File f1, File f2, String keys, DiffSink sink) throws Exception {
+        DiffEngine engine = new DiffEngine(f1.getPath(), f2.getPath(), keys, "", "");
+        engine.setSink(sink);
+        engine.run();
+    }
+
+    @Test
+    void keyColumnsWithCommas() throws Exception {
+        // ("a", "b,c") and ("a,b", "c") are two keys, both sorted, both in both files
+        File f1 = write("a.csv", "a,b,v\na,\"b,c\",2\n\"a,b\",c,1\n");
+        File f2 = write("b.csv", "a,b,v\na,\"b,c\",3\n\"a,b\",c,1\n");
+        String expected = String.format("KEY: %-30s => Mismatched columns = v:3\n", "(a,\"b,c\")");
+        for (String algorithm : ALGORITHMS) {
+            assertEquals(expected, compare(f1, f2, "a,b", algorithm), algorithm);
+        }
+    }
+
+    @Test
+    void sinksGetKeyColumns() throws Exception {
+        File f1 = write("a.csv", "a,b,v\na,\"b,c\",2\n");
+        File f2 = write("b.csv", "a,b,v\na,\"b,c\",3\n");
+        StringWriter json = new StringWriter();
+        compare(f1, f2, "a,b", new JsonLinesDiffSink(json));
+        assertEquals("{\"result\":\"mismatch\",\"key\":[\"a\",\"b,c\"],\"file1Line\":2,\"file2Line\":2,"
+                     + "\"columns\":[{\"name\":\"v\",\"position\":3}]}\n", json.toString());
+        StringWriter csv = new StringWriter();
+        compare(f1, f2, "a,b", new CsvDiffSink(csv));
+        assertEquals("result,a,b,file1_line,file2_line,mismatched_columns\nmismatch,a,\"b,c\",2,2,v:3\n", csv.toString());
+    }
+
+    @Test
+    void resultsIndexedByKey() throws Exception {
+        File f1 = write("a.csv", "id,v\n1,a\n2,b\n3,c\n");
+        File f2 = write("b.csv", "id,v\n2,x\n4,d\n4,e\n");
+        DiffEngine engine = new DiffEngine(f1.getPath(), f2.getPath(), "id", "", "");
+        engine.run();
+        ResultStore results = engine.getResults();
+        // 2 mismatched, 4 twice only in File 2, then 1 and 3 only in File 1
+        assertEquals(0, results.indexOf("2"));
+        assertEquals(1, results.indexOf("4"));
+        assertEquals(3, results.indexOf("1"));
+        assertEquals(-1, results.indexOf("5"));
+    }
+
+    @Test
+    void sameResultsForEveryAlgorithm() throws Exception {
+        File f1 = write("a.csv", "id,sub,v\n1,1,a\n1,2,b\n2,1,c\n2,1,d\n3,\"x,y\",e\n4,1,f\n");
+        File f2 = write("b.csv", "id,sub,v\n1,1,a\n1,2,x\n2,1,d\n2,1,z\n3,x,e\n3,\"x,y\",e\n5,1,g\n");
+        assertSameForEveryMode(f1, f2, "id,sub", "", "");
+    }
+
+    // Files of several MB, so that File 2 is split into several ranges by -t and is more
+    // than the batches of a RecordPipeline hold at once
+    private File[] writeLargeFiles() throws IOException {
+        int rows = 40000;
+        StringBuilder a = new StringBuilder("id,sub,v,amount,note,pad\n");
+        StringBuilder b = new StringBuilder("id,sub,v,amount,note,pad\n");
+        for (int i = 0; i < rows; i++) {
+            String sub = i % 5 == 0 ? "\"s," + (i % 3) + "\"" : "s" + (i % 3);
+            line(a, i, sub, "v" + (i % 7), i * 0.5, i);
+            if (i % 50 == 1) {
+                continue;                                                // only in File 1
+            }
+            String v = i % 40 == 2 ? "w" + (i % 7) : "v" + (i % 7);     // text mismatch
+            double amount = i * 0.5 + (i % 30 == 3 ? 0.5 : (i % 10 == 4 ? 0.004 : 0));
+            line(b, i, sub, v, amount, i + 1);                          // notes always differ
+            if (i % 500 == 5) {
+                line(b, rows + i, "new", "v", 0, i);                     // only in File 2
+            }
+        }
+        // Keys again at the end of the files, far from their first line and in another range:
+        // File 1 has its last line win, File 2 has the later lines found only in File 2
+        for (int i = 6; i < rows; i += 997) {
+            String sub = i % 5 == 0 ? "\"s," + (i % 3) + "\"" : "s" + (i % 3);
+            line(a, i, sub, "last" + (i % 7), i * 0.5, i);
+            line(b, i, sub, "again", i * 0.5, i);
+        }
+        return new File[]{write("a.csv", a.toString()), write("b.csv", b.toString())};
+    }
+
+    @Test
+    void sameResultsForEveryModeOnLargeFiles() throws Exception {
+        File[] f = writeLargeFiles();
+        String results = assertSameForEveryMode(f[0], f[1], "id,sub", "0.01", "note");
+        assertTrue(results.contains("Mismatched columns = v:3\n"), "text mismatch");
+        assertTrue(results.contains("Mismatched columns = amount:4\n"), "number mismatch");
+        assertTrue(results.contains("(6,s0)"), "duplicate key");
+        assertTrue(results.contains("Found only in " + f[0].getPath()), "only in File 1");
+        assertTrue(results.contains("Found only in " + f[1].getPath()), "only in File 2");
+    }
+
+    @Test
+    void pipelinedSameAsSerial() throws Exception {
+        File[] f = writeLargeFiles();
+        for (String algorithm : new String[]{"hash", "index"}) {
+            // A tolerance of 0 compares every line, identical or not
+            for (String tolerance : new String[]{"0.01", "0"}) {
+                String expected = compare(f[0], f[1], "id,sub", tolerance, "note", algorithm, 1, 0);
+                for (int parsers : new int[]{1, 3}) {
+                    assertEquals(expected, compare(f[0], f[1], "id,sub", tolerance, "note", algorithm, 1, parsers),
+                                 algorithm + " -p " + tolerance + " -P " + parsers);
+                }
+            }
+        }
+    }
+
+    // A sink that does something to the comparison it is told of at its first result
+    private abstract static class FirstResultSink implements DiffSink {
+        DiffEngine engine;
+        int results;
+        public void start(DiffEngine engine) {
+            this.engine = engine;
+        }
+        public void mismatch(String[] key, int leftLine, int rightLine, BitSet columns) throws IOException {
+            result();
+        }
+        public void leftOnly(String[] key, int leftLine) throws IOException {
+            result();
+        }
+        public void rightOnly(String[] key, int rightLine) throws IOException {
+            result();
+        }
+        public void finish() {
+        }
+        private void result() throws IOException {
+            if (results++ == 0) {
+                firstResult();
+            }
+        }
+        abstract void firstResult() throws IOException;
+    }
+
+    // Whether a thread of a RecordPipeline is still there
+    private static boolean pipelineThreadsLeft() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("csvdiff-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void pipelinedCompareCancelled() throws Exception {
+        File[] f = writeLargeFiles();
+        DiffEngine engine = new DiffEngine(f[0].getPath(), f[1].getPath(), "id,sub", "0.01", "note");
+        engine.setParsers(2);
+        FirstResultSink sink = new FirstResultSink() {
+            void firstResult() {
+                engine.cancel();
+            }
+        };
+        engine.setSink(sink);
+        try {
+            engine.run();
+            fail("The comparison was not cancelled.");
+        } catch (CancellationException ex) {
+            // The reader thread stopped at its next block, and run() with it
+        }
+        assertTrue(sink.results < 1000, "" + sink.results);
+        assertFalse(pipelineThreadsLeft());
+    }
+
+    @Test
+    void pipelinedCompareFailsWithParser() throws Exception {
+        // File 1 is cut short once it is loaded: the parser threads of the index mode read its
+        // rows back, and the first one that cannot fails the comparison
+        final File[] f = writeLargeFiles();
+        DiffEngine engine = new DiffEngine(f[0].getPath(), f[1].getPath(), "id,sub", "0.01", "note");
+        engine.setAlgorithm("index");
+        engine.setParsers(2);
+        engine.setSink(new FirstResultSink() {
+            void firstResult() throws IOException {
+                RandomAccessFile file = new RandomAccessFile(f[0], "rw");
+                try {
+                    file.setLength(100);
+                } finally {
+                    file.close();
+                }
+            }
+        });
+        try {
+            engine.run();
+            fail("The comparison did not fail.");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("cannot be read back"), ex.getMessage());
+        }
+        assertFalse(pipelineThreadsLeft());
+    }
+}
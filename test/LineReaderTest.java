@@ -0,0 +1,77 @@
+/*
+ * =============================================================================================
+ * Name: LineReaderTest.java
+ * Desc: Tests of how LineReader and CsvTokenizer split records, in particular records with a
+ *       quote that opens a field and is never closed.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LineReaderTest {
+    @TempDir
+    File dir;
+
+    private List<String> lines(String content) throws IOException {
+        File f = new File(dir, "test.csv");
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<String>();
+        LineReader reader = new LineReader(f.getPath());
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    void quotedFieldSpansLines() throws IOException {
+        List<String> lines = lines("id,note\n1,\"two\nlines\"\n2,b\n");
+        assertEquals(List.of("id,note", "1,\"two\nlines\"", "2,b"), lines);
+        assertArrayEquals(new String[]{"1", "two\nlines"}, CsvTokenizer.split(lines.get(1)));
+    }
+
+    @Test
+    void strayQuoteMidFile() throws IOException {
+        List<String> lines = lines("id,note\n1,\"abc,x\n2,def\n3,ghi\n");
+        assertEquals(List.of("id,note", "1,\"abc,x", "2,def", "3,ghi"), lines);
+        assertArrayEquals(new String[]{"1", "\"abc", "x"}, CsvTokenizer.split(lines.get(1)));
+    }
+
+    @Test
+    void strayQuoteOnLastLine() throws IOException {
+        assertEquals(List.of("id,note", "1,a", "2,\"b"), lines("id,note\n1,a\n2,\"b"));
+        assertEquals(List.of("id,note", "1,a", "2,\"b"), lines("id,note\n1,a\n2,\"b\n"));
+    }
+
+    @Test
+    void strayQuoteInLargeFile() throws IOException {
+        StringBuilder sb = new StringBuilder("id,note\n1,\"abc\n");
+        int rows = 2 * LineReader.MAX_QUOTED_RECORD / 10;
+        for (int i = 0; i < rows; i++) {
+            sb.append(String.format("%08d", i)).append(",\n");
+        }
+        List<String> lines = lines(sb.toString());
+        assertEquals(rows + 2, lines.size());
+        assertEquals("1,\"abc", lines.get(1));
+        assertEquals("00000000,", lines.get(2));
+        assertEquals(String.format("%08d", rows - 1) + ",", lines.get(rows + 1));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * =============================================================================================
+ * Name: RowStoreTest.java
+ * Desc: Tests of how RowStore keeps rows in its arena pages: a small store takes a small page,
+ *       and rows stay where they were while the pages grow and after a store is read back. And
+ *       of the key index that a store boils down to once a comparison is over, of the line
+ *       offsets that only an index keeps, and of the dictionary codes that the values of File 2
+ *       are compared by.
+ * By  : prat
+ * On  : 12/1/2013
+ * =============================================================================================
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RowStoreTest {
+    @TempDir
+    File dir;
+
+    // Rows "k<i>" of two values, the second one unique and long enough to fill several pages
+    private static RowStore store(int rows) {
+        RowStore store = new RowStore(2);
+        PackedKey key = new PackedKey();
+        for (int i = 0; i < rows; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            store.add(key, new String[]{"same", value(i)}, i + 2);
+        }
+        return store;
+    }
+
+    private static String value(int i) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 300) {
+            sb.append(i).append('-');
+        }
+        return sb.toString();
+    }
+
+    private static void check(RowStore store, int rows) {
+        PackedKey key = new PackedKey();
+        String[] values = new String[2];
+        for (int i = 0; i < rows; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            int row = store.find(key);
+            assertEquals(i, row);
+            assertArrayEquals(new String[]{"k" + i}, store.key(row));
+            store.values(row, values);
+            assertArrayEquals(new String[]{"same", value(i)}, values);
+        }
+    }
+
+    @Test
+    void smallStoreTakesSmallPage() {
+        RowStore store = store(3);
+        check(store, 3);
+        assertTrue(store.memoryBytes() < RowStore.PAGE_SIZE / 8, "" + store.memoryBytes());
+    }
+
+    @Test
+    void rowsStayWhilePagesGrow() {
+        int rows = 3 * RowStore.PAGE_SIZE / 300;
+        check(store(rows), rows);
+    }
+
+    @Test
+    void readBack() throws IOException {
+        int rows = RowStore.PAGE_SIZE / 300 + 100;
+        RowStore store = store(rows);
+        File sidecar = new File(dir, "store.idx");
+        BaselineIndex.save(sidecar, "test", store);
+        RowStore read = BaselineIndex.load(sidecar, "test");
+        assertNotNull(read);
+        check(read, rows);
+        // The last page holds 100 rows or so, not a whole page
+        assertTrue(read.memoryBytes() < store.memoryBytes(), read.memoryBytes() + " " + store.memoryBytes());
+    }
+
+    @Test
+    void indexReadBackWithOffsets() throws IOException {
+        RowStore index = new RowStore(2, false);
+        PackedKey key = new PackedKey();
+        for (int i = 0; i < 3000; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            index.add(key, new String[]{"same", value(i)}, i + 2, 1000L * i);
+        }
+        File sidecar = new File(dir, "index.idx");
+        BaselineIndex.save(sidecar, "test", index);
+        RowStore read = BaselineIndex.load(sidecar, "test");
+        assertNotNull(read);
+        for (int i = 0; i < 3000; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            int row = read.find(key);
+            assertEquals(i + 2, read.lineNumber(row));
+            assertEquals(1000L * i, read.offset(row));
+        }
+    }
+
+    @Test
+    void valuesComparedByCode() {
+        RowStore store = new RowStore(2);
+        PackedKey key = new PackedKey();
+        for (int i = 0; i < 3; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            store.add(key, new String[]{i == 1 ? "caf\u00e9" : "tea", i == 2 ? "" : "v" + i}, i + 2);
+        }
+        long before = store.memoryBytes();
+        RowStore.Probe probe = store.new Probe();
+        String[] values = new String[2];
+        probe.values(1, values);
+        assertEquals(probe.code(0), probe.lookup(0, "caf\u00e9"));
+        assertNotEquals(probe.code(0), probe.lookup(0, "tea"));
+        assertEquals(-1, probe.lookup(0, "cafe"));
+        assertEquals(probe.code(1), probe.lookup(1, "v1"));
+        assertEquals(-1, probe.lookup(1, "v2"));
+        probe.values(2, values);
+        assertEquals(-1, probe.code(1));
+
+        // The Strings the codes decode to count as the memory of the store
+        key.set(new String[]{"k3"}, 1, StandardCharsets.UTF_8);
+        store.add(key, new String[]{"tea", value(3)}, 5);
+        assertTrue(store.memoryBytes() >= before + value(3).length(), store.memoryBytes() + " " + before);
+    }
+
+    @Test
+    void keyIndex() {
+        int rows = 1000;
+        RowStore store = store(rows);
+        PackedKey key = new PackedKey();
+        key.set(new String[]{"k7"}, 1, StandardCharsets.UTF_8);
+        store.markMatched(store.find(key), 42);
+        long before = store.memoryBytes();
+
+        RowStore index = store.keyIndex();
+        assertTrue(index.memoryBytes() < before / 4, index.memoryBytes() + " " + before);
+        for (int i = 0; i < rows; i++) {
+            key.set(new String[]{"k" + i}, 1, StandardCharsets.UTF_8);
+            int row = index.find(key);
+            assertEquals(i, row);
+            assertArrayEquals(new String[]{"k" + i}, index.key(row));
+            assertEquals(i + 2, index.lineNumber(row));
+            assertEquals(i == 7 ? 42 : 0, index.matchLine(row));
+        }
+        key.set(new String[]{"k" + rows}, 1, StandardCharsets.UTF_8);
+        assertEquals(-1, index.find(key));
+    }
+}